@@ -30,10 +30,18 @@ import com.google.inject.Inject;
 import com.meronat.latch.commands.Commands;
 import com.meronat.latch.entities.LockManager;
 import com.meronat.latch.listeners.ChangeBlockListener;
+import com.meronat.latch.listeners.ChunkListener;
 import com.meronat.latch.listeners.InteractBlockListener;
 import com.meronat.latch.listeners.NotifyNeighborListener;
 import com.meronat.latch.listeners.PlayerDisconnectListener;
+import com.meronat.latch.listeners.WorldListener;
+import com.meronat.latch.storage.H2Handler;
+import com.meronat.latch.storage.LockSnapshot;
+import com.meronat.latch.storage.LockStorage;
+import com.meronat.latch.storage.MySqlHandler;
 import com.meronat.latch.storage.SqlHandler;
+import com.meronat.latch.storage.SqliteHandler;
+import com.meronat.latch.storage.WriteBehindStorage;
 import ninja.leaping.configurate.commented.CommentedConfigurationNode;
 import ninja.leaping.configurate.loader.ConfigurationLoader;
 import ninja.leaping.configurate.objectmapping.ObjectMappingException;
@@ -45,15 +53,17 @@ import org.spongepowered.api.event.Listener;
 import org.spongepowered.api.event.game.GameReloadEvent;
 import org.spongepowered.api.event.game.state.GamePostInitializationEvent;
 import org.spongepowered.api.event.game.state.GameStartedServerEvent;
+import org.spongepowered.api.event.game.state.GameStoppingServerEvent;
 import org.spongepowered.api.plugin.Plugin;
 import org.spongepowered.api.plugin.PluginContainer;
 import org.spongepowered.api.scheduler.Task;
 import org.spongepowered.api.service.permission.PermissionService;
 import org.spongepowered.api.util.Tristate;
+import org.spongepowered.api.world.World;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 @Plugin(id = Info.ID, name = Info.NAME, version = Info.VERSION, description = Info.DESCRIPTION, url = Info.URL, authors = {"Nighteyes604", "Meronat"})
@@ -67,9 +77,12 @@ public class Latch {
     private static PluginContainer plugin;
 
     private static Configuration config;
-    private static SqlHandler storageHandler;
+    private static LockStorage storageHandler;
 
     private Task cleanLocksTask;
+    private Task flushStorageTask;
+    private Task flushAccessTimesTask;
+    private Task writeSnapshotTask;
 
     @Inject
     @DefaultConfig(sharedRoot = false)
@@ -85,7 +98,8 @@ public class Latch {
     @Listener
     public void onGamePostInit(final GamePostInitializationEvent event) {
         config = new Configuration(configManager);
-        storageHandler = new SqlHandler();
+        storageHandler = createStorageHandler();
+        storageHandler.createTables();
 
         Commands.getCommands().register();
     }
@@ -93,10 +107,11 @@ public class Latch {
     @Listener
     public void onGameStarted(final GameStartedServerEvent event) {
         loadConfigurationData();
+        loadLocks();
         registerListeners(false);
 
         // Register base permission node.
-        if (getConfig().getNode("add_default_permissions").getBoolean()) {
+        if (getSettings().addDefaultPermissions()) {
             Sponge.getServiceManager().provide(PermissionService.class).ifPresent(p -> p.getUserSubjects().getDefaults().getSubjectData()
                     .setPermission(p.getDefaults().getActiveContexts(), "latch.normal", Tristate.TRUE));
         }
@@ -109,29 +124,108 @@ public class Latch {
         if (this.cleanLocksTask != null) {
             this.cleanLocksTask.cancel();
         }
+        if (this.flushStorageTask != null) {
+            this.flushStorageTask.cancel();
+        }
+        if (this.flushAccessTimesTask != null) {
+            this.flushAccessTimesTask.cancel();
+        }
+        if (this.writeSnapshotTask != null) {
+            this.writeSnapshotTask.cancel();
+        }
 
         unregisterListeners();
 
+        lockManager.flushAccessTimes();
+        storageHandler.flush();
         config.reloadConfig();
-        storageHandler.reloadTables();
+        storageHandler = createStorageHandler();
+        storageHandler.createTables();
 
         loadConfigurationData();
+        loadLocks();
         registerListeners(true);
         registerTasks();
 
         logger.info("Latch has been successfully reloaded.");
     }
 
+    @Listener
+    public void onGameStopping(GameStoppingServerEvent event) {
+        lockManager.flushAccessTimes();
+        storageHandler.flush();
+        lockManager.saveOccupancy(getOccupancyPath());
+        lockManager.getPasswordService().shutdown();
+    }
+
+    private static LockStorage createStorageHandler() {
+        final String storageType = getSettings().getStorageType();
+        final SqlHandler sqlHandler;
+
+        switch (storageType.toLowerCase()) {
+            case "mysql":
+                sqlHandler = new MySqlHandler();
+                break;
+            case "sqlite":
+                sqlHandler = new SqliteHandler();
+                break;
+            case "h2":
+                sqlHandler = new H2Handler();
+                break;
+            default:
+                getLogger().error("Unknown storage_type " + storageType + ", falling back to h2.");
+                sqlHandler = new H2Handler();
+        }
+
+        if (getSettings().getStorageFlushInterval() > 0) {
+            return new WriteBehindStorage(sqlHandler);
+        }
+        return sqlHandler;
+    }
+
     private void registerTasks() {
-        if (getConfig().getNode("clean_old_locks").getBoolean(false)) {
+        final LatchSettings settings = getSettings();
+
+        final int flushInterval = settings.getStorageFlushInterval();
+        if (flushInterval > 0) {
+            this.flushStorageTask = Task.builder()
+                .name("flush-lock-storage")
+                .async()
+                .interval(flushInterval, TimeUnit.MILLISECONDS)
+                .execute(() -> storageHandler.flush())
+                .submit(getPluginContainer());
+        }
+
+        this.flushAccessTimesTask = Task.builder()
+            .name("flush-lock-access-times")
+            .async()
+            .interval(settings.getAccessTimeFlushInterval(), TimeUnit.SECONDS)
+            .execute(lockManager::flushAccessTimes)
+            .submit(getPluginContainer());
+
+        final int snapshotInterval = settings.getSnapshotInterval();
+        if (snapshotInterval > 0) {
+            this.writeSnapshotTask = Task.builder()
+                .name("write-lock-snapshot")
+                .async()
+                .delay(snapshotInterval, TimeUnit.MINUTES)
+                .interval(snapshotInterval, TimeUnit.MINUTES)
+                .execute(() -> {
+                    storageHandler.writeSnapshot(getSnapshotPath());
+                    pruneDeletedLocks();
+                })
+                .submit(getPluginContainer());
+        }
+
+        if (settings.cleanOldLocks()) {
             this.cleanLocksTask = Task.builder()
                 .name("clean-old-locks")
                 .async()
-                .interval(getConfig().getNode("clean_old_locks_interval").getInt(4), TimeUnit.HOURS)
+                .interval(settings.getCleanOldLocksInterval(), TimeUnit.HOURS)
                 .execute(() -> {
-                    int daysOld = getConfig().getNode("clean_locks_older_than").getInt(40);
+                    int daysOld = settings.getCleanLocksOlderThan();
                     getLogger()
-                        .info("Successfully deleted " + storageHandler.clearLocksOlderThan(daysOld) + " locks older than " + daysOld + " days old.");
+                        .info("Successfully deleted " + lockManager.clearLocksOlderThan(daysOld) + " locks older than " + daysOld + " days old.");
                 })
                 .submit(getPluginContainer());
         }
@@ -148,10 +242,14 @@ public class Latch {
 
         eventManager.registerListeners(this, new ChangeBlockListener());
         eventManager.registerListeners(this, new InteractBlockListener());
-        if (getConfig().getNode("protect_from_redstone").getBoolean(false)) {
+        eventManager.registerListeners(this, new WorldListener());
+        if (lockManager.isLoadPerChunk()) {
+            eventManager.registerListeners(this, new ChunkListener());
+        }
+        if (getSettings().protectFromRedstone()) {
             eventManager.registerListeners(this, new NotifyNeighborListener());
         }
-        if (getConfig().getNode("remove_bypass_on_logout").getBoolean()) {
+        if (getSettings().removeBypassOnLogout()) {
             eventManager.registerListeners(this, new PlayerDisconnectListener());
         }
         if(reload) {
@@ -181,21 +279,54 @@ public class Latch {
             e.printStackTrace();
         }
 
-        try {
-            lockManager.setLockLimits((HashMap<String, Integer>) getConfig().getNode("lock_limit").getValue(new TypeToken<Map<String, Integer>>() {}));
-        } catch (ObjectMappingException e) {
-            getLogger().error("Error loading lock limits");
-            e.printStackTrace();
+        lockManager.setLoadPerChunk(getSettings().loadLocksPerChunk());
+    }
+
+    private void loadLocks() {
+        lockManager.loadOccupancy(getOccupancyPath());
+
+        //Per chunk loading fetches locks as chunks load, a snapshot would only load everything again
+        if (lockManager.isLoadPerChunk() || getSettings().getSnapshotInterval() <= 0 || !lockManager.loadSnapshot(getSnapshotPath())) {
+            for (World world : Sponge.getServer().getWorlds()) {
+                lockManager.loadWorld(world);
+            }
+        }
+
+        //Built from the locks just indexed where those are all of them
+        lockManager.loadRedstoneProtection();
+        lockManager.loadSupportBlocks();
+
+        pruneDeletedLocks();
+    }
+
+    //Deletions are only kept to catch the snapshot on disk up with storage, so whatever it already has or doesn't need is dropped
+    private static void pruneDeletedLocks() {
+        if (getSettings().getSnapshotInterval() <= 0) {
+            //Deletions aren't recorded while snapshots are off, so an old snapshot could bring deleted locks back later
+            try {
+                Files.deleteIfExists(getSnapshotPath());
+            } catch (IOException e) {
+                getLogger().error("Error deleting lock snapshot " + getSnapshotPath() + ":");
+                e.printStackTrace();
+            }
         }
 
-        lockManager.setProtectFromRedstone(getConfig().getNode("protect_from_redstone").getBoolean(false));
+        storageHandler.pruneDeletedLocks(LockSnapshot.readChangeCounter(getSnapshotPath()).orElse(Long.MAX_VALUE));
+    }
+
+    private static Path getSnapshotPath() {
+        return configPath.getParent().resolve("locks.snapshot");
+    }
+
+    private static Path getOccupancyPath() {
+        return configPath.getParent().resolve("locks.occupancy");
     }
 
     public static Logger getLogger() {
         return logger;
     }
 
-    public static SqlHandler getStorageHandler() {
+    public static LockStorage getStorageHandler() {
         return storageHandler;
     }
 
@@ -211,6 +342,10 @@ public class Latch {
         return config;
     }
 
+    public static LatchSettings getSettings() {
+        return config.getSettings();
+    }
+
     public static Path getConfigPatch() {
         return configPath;
     }
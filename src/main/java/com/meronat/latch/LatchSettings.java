@@ -0,0 +1,220 @@
+/*
+ * This file is part of Latch, licensed under the MIT License.
+ *
+ * Copyright (c) 2016-2018 IchorPowered <https://github.com/IchorPowered>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.meronat.latch;
+
+import com.google.common.reflect.TypeToken;
+import com.meronat.latch.enums.LockType;
+import ninja.leaping.configurate.commented.CommentedConfigurationNode;
+import ninja.leaping.configurate.objectmapping.ObjectMappingException;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The settings of the configuration, read once into typed fields so event handlers don't go through the configuration nodes. A new snapshot
+ * is built every time the configuration is loaded, this one never changes.
+ */
+public final class LatchSettings {
+
+    private final String storageType;
+    private final String storageUrl;
+    private final int storageFlushInterval;
+
+    private final boolean addDefaultPermissions;
+    private final boolean autoLockOnPlacement;
+    private final boolean protectFromRedstone;
+    private final boolean protectFromExplosives;
+    private final boolean removeBypassOnLogout;
+    private final boolean allowOpeningLockedIron;
+    private final boolean loadLocksPerChunk;
+
+    private final boolean cleanOldLocks;
+    private final int cleanOldLocksInterval;
+    private final int cleanLocksOlderThan;
+
+    private final Duration accessTimeGranularity;
+    private final int accessTimeFlushInterval;
+    private final int snapshotInterval;
+    private final long passwordAttemptCooldown;
+    private final Duration passwordAccessLifetime;
+
+    //Only lock types with a limit are in here
+    private final Map<LockType, Integer> lockLimits;
+    private final int totalLockLimit;
+
+    LatchSettings(CommentedConfigurationNode rootNode) {
+        this.storageType = rootNode.getNode("storage_type").getString("h2");
+        this.storageUrl = rootNode.getNode("storage_url").getString("");
+        this.storageFlushInterval = rootNode.getNode("storage_flush_interval").getInt(50);
+
+        this.addDefaultPermissions = rootNode.getNode("add_default_permissions").getBoolean();
+        this.autoLockOnPlacement = rootNode.getNode("auto_lock_on_placement").getBoolean();
+        this.protectFromRedstone = rootNode.getNode("protect_from_redstone").getBoolean(false);
+        this.protectFromExplosives = rootNode.getNode("protect_from_explosives").getBoolean(true);
+        this.removeBypassOnLogout = rootNode.getNode("remove_bypass_on_logout").getBoolean();
+        this.allowOpeningLockedIron = rootNode.getNode("allow_opening_locked_iron").getBoolean(false);
+        this.loadLocksPerChunk = rootNode.getNode("load_locks_per_chunk").getBoolean(false);
+
+        this.cleanOldLocks = rootNode.getNode("clean_old_locks").getBoolean(false);
+        this.cleanOldLocksInterval = rootNode.getNode("clean_old_locks_interval").getInt(4);
+        this.cleanLocksOlderThan = rootNode.getNode("clean_locks_older_than").getInt(40);
+
+        this.accessTimeGranularity = Duration.ofMinutes(rootNode.getNode("access_time_granularity").getInt(10));
+        this.accessTimeFlushInterval = rootNode.getNode("access_time_flush_interval").getInt(60);
+        this.snapshotInterval = rootNode.getNode("snapshot_interval").getInt(30);
+        this.passwordAttemptCooldown = rootNode.getNode("password_attempt_cooldown").getLong(1000);
+        this.passwordAccessLifetime = Duration.ofSeconds(rootNode.getNode("password_access_lifetime").getInt(60));
+
+        final Map<LockType, Integer> lockLimits = new EnumMap<>(LockType.class);
+        int totalLockLimit = -1;
+
+        try {
+            final Map<String, Integer> limits = rootNode.getNode("lock_limit").getValue(new TypeToken<Map<String, Integer>>() {},
+                Collections.emptyMap());
+
+            for (Map.Entry<String, Integer> limit : limits.entrySet()) {
+                //Only add if limit >=0, otherwise no limit
+                if (limit.getValue() == null || limit.getValue() < 0) {
+                    continue;
+                }
+
+                if (limit.getKey().equalsIgnoreCase("total")) {
+                    totalLockLimit = limit.getValue();
+                } else {
+                    for (LockType type : LockType.values()) {
+                        if (type.toString().equalsIgnoreCase(limit.getKey())) {
+                            lockLimits.put(type, limit.getValue());
+                        }
+                    }
+                }
+            }
+        } catch (ObjectMappingException e) {
+            Latch.getLogger().error("Error loading lock limits");
+            e.printStackTrace();
+        }
+
+        this.lockLimits = Collections.unmodifiableMap(lockLimits);
+        this.totalLockLimit = totalLockLimit;
+    }
+
+    public String getStorageType() {
+        return this.storageType;
+    }
+
+    public String getStorageUrl() {
+        return this.storageUrl;
+    }
+
+    public int getStorageFlushInterval() {
+        return this.storageFlushInterval;
+    }
+
+    public boolean addDefaultPermissions() {
+        return this.addDefaultPermissions;
+    }
+
+    public boolean autoLockOnPlacement() {
+        return this.autoLockOnPlacement;
+    }
+
+    public boolean protectFromRedstone() {
+        return this.protectFromRedstone;
+    }
+
+    public boolean protectFromExplosives() {
+        return this.protectFromExplosives;
+    }
+
+    public boolean removeBypassOnLogout() {
+        return this.removeBypassOnLogout;
+    }
+
+    public boolean allowOpeningLockedIron() {
+        return this.allowOpeningLockedIron;
+    }
+
+    public boolean loadLocksPerChunk() {
+        return this.loadLocksPerChunk;
+    }
+
+    public boolean cleanOldLocks() {
+        return this.cleanOldLocks;
+    }
+
+    public int getCleanOldLocksInterval() {
+        return this.cleanOldLocksInterval;
+    }
+
+    public int getCleanLocksOlderThan() {
+        return this.cleanLocksOlderThan;
+    }
+
+    public Duration getAccessTimeGranularity() {
+        return this.accessTimeGranularity;
+    }
+
+    public int getAccessTimeFlushInterval() {
+        return this.accessTimeFlushInterval;
+    }
+
+    public int getSnapshotInterval() {
+        return this.snapshotInterval;
+    }
+
+    public long getPasswordAttemptCooldown() {
+        return this.passwordAttemptCooldown;
+    }
+
+    public Duration getPasswordAccessLifetime() {
+        return this.passwordAccessLifetime;
+    }
+
+    /**
+     * Get how many locks of a type a player may have.
+     *
+     * @param type The type of lock
+     * @return The limit, or -1 if there is none
+     */
+    public int getLockLimit(LockType type) {
+        return this.lockLimits.getOrDefault(type, -1);
+    }
+
+    /**
+     * Get how many locks a player may have in total.
+     *
+     * @return The limit, or -1 if there is none
+     */
+    public int getTotalLockLimit() {
+        return this.totalLockLimit;
+    }
+
+    public Map<LockType, Integer> getLockLimits() {
+        return this.lockLimits;
+    }
+
+}
@@ -71,7 +71,7 @@ public class CleanCommand implements CommandExecutor {
 
     private void yes(CommandSource src, int days) {
         Sponge.getScheduler().createAsyncExecutor(Latch.getPluginContainer()).execute(() -> {
-            src.sendMessage(Text.of(TextColors.YELLOW, Latch.getStorageHandler().clearLocksOlderThan(days), TextColors.DARK_GREEN,
+            src.sendMessage(Text.of(TextColors.YELLOW, Latch.getLockManager().clearLocksOlderThan(days), TextColors.DARK_GREEN,
                 " locks have been deleted that were not accessed in the past ", TextColors.YELLOW, days, TextColors.DARK_GREEN, " days."));
         });
     }
@@ -106,7 +106,7 @@ public class HelpCommand implements CommandExecutor {
                 "--remove=[player] remove the player from the lock access list", Text.NEW_LINE,
                 "--owner=[player] give the lock to another player");
 
-        if (Latch.getConfig().getNode("protect_from_redstone").getBoolean(false)) {
+        if (Latch.getSettings().protectFromRedstone()) {
             changeHelp = Text.of("--name=[name] to rename the lock", Text.NEW_LINE,
                     "--type=[PRIVATE, PASSWORD_ALWAYS, PASSWORD_ONCE, DONATION] to change the lock type", Text.NEW_LINE,
                     "--password=[password] change the password of the lock (resets access list)", Text.NEW_LINE,
@@ -85,7 +85,7 @@ public class PurgeCommand implements CommandExecutor {
     }
 
     private void yes(User user, CommandSource src, boolean self) {
-        Latch.getStorageHandler().deleteLocksForPlayer(user.getUniqueId());
+        Latch.getLockManager().deleteLocksForPlayer(user.getUniqueId());
 
         if (self) {
             src.sendMessage(Text.of(TextColors.DARK_GREEN, "All of your locks have been deleted."));
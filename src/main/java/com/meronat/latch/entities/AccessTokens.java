@@ -0,0 +1,122 @@
+/*
+ * This file is part of Latch, licensed under the MIT License.
+ *
+ * Copyright (c) 2016-2018 IchorPowered <https://github.com/IchorPowered>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.meronat.latch.entities;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Single use passes handed out for a correct password on a lock that asks for it every time. They only live in memory, expire after a
+ * while and are dropped when the player leaves, so opening a lock never has to write to storage.
+ */
+public final class AccessTokens {
+
+    //Lock ids with the time each pass expires, per player
+    private final Map<UUID, Map<Long, Long>> tokens = new ConcurrentHashMap<>();
+
+    /**
+     * Give a player a single use pass for a lock, replacing any they already had for it.
+     *
+     * @param player The unique id of the player
+     * @param lockId The id of the lock
+     * @param lifetime How long the pass lasts in milliseconds
+     */
+    public void grant(UUID player, long lockId, long lifetime) {
+        final long now = System.currentTimeMillis();
+
+        final Map<Long, Long> playerTokens = this.tokens.computeIfAbsent(player, k -> new ConcurrentHashMap<>());
+        prune(playerTokens, now);
+
+        playerTokens.put(lockId, now + lifetime);
+    }
+
+    /**
+     * Check whether a player has a pass for a lock, without using it up.
+     *
+     * @param player The unique id of the player
+     * @param lockId The id of the lock
+     * @return Whether the player has a pass for the lock which has not expired
+     */
+    public boolean has(UUID player, long lockId) {
+        final Map<Long, Long> playerTokens = this.tokens.get(player);
+
+        if (playerTokens == null) {
+            return false;
+        }
+
+        prune(playerTokens, System.currentTimeMillis());
+        return playerTokens.containsKey(lockId);
+    }
+
+    /**
+     * Use up the pass of a player for a lock.
+     *
+     * @param player The unique id of the player
+     * @param lockId The id of the lock
+     * @return Whether the player had a pass for the lock which had not expired
+     */
+    public boolean consume(UUID player, long lockId) {
+        final Map<Long, Long> playerTokens = this.tokens.get(player);
+
+        if (playerTokens == null) {
+            return false;
+        }
+
+        final long now = System.currentTimeMillis();
+        final Long expiry = playerTokens.remove(lockId);
+        prune(playerTokens, now);
+
+        return expiry != null && expiry >= now;
+    }
+
+    /**
+     * Take back every pass for a lock, such as when its password changes.
+     *
+     * @param lockId The id of the lock
+     */
+    public void revoke(long lockId) {
+        for (Map<Long, Long> playerTokens : this.tokens.values()) {
+            playerTokens.remove(lockId);
+        }
+    }
+
+    //Drop the passes which ran out without being used
+    private static void prune(Map<Long, Long> playerTokens, long now) {
+        final Iterator<Long> expiries = playerTokens.values().iterator();
+        while (expiries.hasNext()) {
+            if (expiries.next() < now) {
+                expiries.remove();
+            }
+        }
+    }
+
+    public void clear(UUID player) {
+        this.tokens.remove(player);
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * This file is part of Latch, licensed under the MIT License.
+ *
+ * Copyright (c) 2016-2018 IchorPowered <https://github.com/IchorPowered>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.meronat.latch.entities;
+
+import com.google.common.collect.ImmutableSet;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.block.BlockType;
+import org.spongepowered.api.block.BlockTypes;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What Latch treats every registered block type as, worked out once from the configured block ids. Never changed after it is built, a new
+ * one replaces it whenever the configuration changes. It keeps the lockable block ids it was built from, so they are replaced together.
+ */
+public final class BlockClassification {
+
+    public static final byte LOCKABLE = 1;
+    public static final byte RESTRICTED = 1 << 1;
+    public static final byte PROTECT_BELOW = 1 << 2;
+    public static final byte IRON_OPENABLE = 1 << 3;
+
+    static final BlockClassification EMPTY = new BlockClassification(Collections.emptyMap(), ImmutableSet.of());
+
+    //Only block types with any flag are in here
+    private final Map<BlockType, Byte> flags;
+    private final ImmutableSet<String> lockableBlocks;
+
+    private BlockClassification(Map<BlockType, Byte> flags, ImmutableSet<String> lockableBlocks) {
+        this.flags = flags;
+        this.lockableBlocks = lockableBlocks;
+    }
+
+    static BlockClassification of(Set<String> lockableBlocks, Set<String> restrictedBlocks, Set<String> protectBelowBlocks,
+        boolean allowOpeningLockedIron) {
+        final Map<BlockType, Byte> flags = new IdentityHashMap<>();
+
+        for (BlockType type : Sponge.getRegistry().getAllOf(BlockType.class)) {
+            byte typeFlags = 0;
+
+            if (lockableBlocks.contains(type.getId())) {
+                typeFlags |= LOCKABLE;
+            }
+            if (restrictedBlocks.contains(type.getId())) {
+                typeFlags |= RESTRICTED;
+            }
+            if (protectBelowBlocks.contains(type.getId())) {
+                typeFlags |= PROTECT_BELOW;
+            }
+            if (allowOpeningLockedIron && (type.equals(BlockTypes.IRON_DOOR) || type.equals(BlockTypes.IRON_TRAPDOOR))) {
+                typeFlags |= IRON_OPENABLE;
+            }
+
+            if (typeFlags != 0) {
+                flags.put(type, typeFlags);
+            }
+        }
+
+        return new BlockClassification(flags, ImmutableSet.copyOf(lockableBlocks));
+    }
+
+    ImmutableSet<String> getLockableBlocks() {
+        return this.lockableBlocks;
+    }
+
+    public boolean is(BlockType type, byte flag) {
+        final Byte typeFlags = this.flags.get(type);
+        return typeFlags != null && (typeFlags & flag) != 0;
+    }
+
+}
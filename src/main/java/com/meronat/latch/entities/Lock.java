@@ -25,21 +25,24 @@
 
 package com.meronat.latch.entities;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.meronat.latch.Latch;
 import com.meronat.latch.enums.LockType;
+import com.meronat.latch.utils.IdDictionary;
 import com.meronat.latch.utils.LatchUtils;
+import com.meronat.latch.utils.NameCache;
 import org.spongepowered.api.Sponge;
-import org.spongepowered.api.entity.living.player.User;
-import org.spongepowered.api.service.user.UserStorageService;
 import org.spongepowered.api.world.Location;
 import org.spongepowered.api.world.World;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -49,8 +52,22 @@ import javax.annotation.Nullable;
 
 public class Lock {
 
-    private Set<Location<World>> locations;
-    private Set<UUID> accessors;
+    private static final int NO_WORLD = IdDictionary.NO_ID;
+
+    //Ids for worlds and players for as long as the server runs. They are not stored anywhere, and let a lock hold ints rather than
+    //the world itself or one UUID per accessor
+    private static final IdDictionary worldIds = new IdDictionary();
+    private static final IdDictionary playerIds = new IdDictionary();
+
+    //The storage ID of the lock, 0 until it has been stored, which write-behind storage does from its own thread
+    private volatile long id;
+
+    //Locks keep their world as an id and their blocks as packed positions, so a lock never keeps an unloaded world in memory
+    private int worldId = NO_WORLD;
+    private long[] positions = new long[0];
+
+    //Sorted ids from playerIds, as the same members tend to be on many locks
+    private int[] accessors = new int[0];
 
     private byte[] salt;
 
@@ -63,22 +80,118 @@ public class Lock {
 
     private boolean protectFromRedstone;
 
-    private Lock(UUID owner, LockType type, String name, String objectName, String password, byte[] salt, Set<Location<World>> locations,
+    private Lock(long id, UUID owner, LockType type, String name, String objectName, String password, byte[] salt, Set<Location<World>> locations,
         Set<UUID> accessors, LocalDateTime lastAccessed, boolean protectFromRedstone) {
+        this.id = id;
         this.owner = owner;
         this.type = type;
         this.name = name;
         this.objectName = objectName;
         this.password = password;
         this.salt = salt;
-        this.locations = locations;
-        this.accessors = accessors;
+        locations.forEach(this::addLocation);
+        accessors.forEach(this::addAccess);
         this.lastAccessed = lastAccessed;
         this.protectFromRedstone = protectFromRedstone;
     }
 
+    public long getId() {
+        return this.id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    /**
+     * Build the locations of this lock. Changing the returned set does not change the lock.
+     *
+     * @return The locations, or none if the world of the lock is not loaded
+     */
     public Set<Location<World>> getLocations() {
-        return this.locations;
+        final Optional<World> world = getWorld();
+
+        if (!world.isPresent()) {
+            return Collections.emptySet();
+        }
+
+        final Set<Location<World>> locations = new HashSet<>();
+        for (long position : this.positions) {
+            locations.add(world.get().getLocation(LatchUtils.unpackX(position), LatchUtils.unpackY(position), LatchUtils.unpackZ(position)));
+        }
+        return locations;
+    }
+
+    public Optional<UUID> getWorldUniqueId() {
+        return this.worldId == NO_WORLD ? Optional.empty() : Optional.ofNullable(worldIds.getUniqueId(this.worldId));
+    }
+
+    private Optional<World> getWorld() {
+        return getWorldUniqueId().flatMap(Sponge.getServer()::getWorld);
+    }
+
+    /**
+     * Get the packed positions of the blocks of this lock, see {@link LatchUtils#packPosition(int, int, int)}.
+     *
+     * @return A copy of the positions
+     */
+    public long[] getPositions() {
+        return this.positions.clone();
+    }
+
+    public int getLocationCount() {
+        return this.positions.length;
+    }
+
+    public boolean hasLocation(Location<World> location) {
+        return isInWorld(location.getExtent().getUniqueId()) && indexOf(LatchUtils.packPosition(location)) >= 0;
+    }
+
+    public void addLocation(Location<World> location) {
+        addPosition(location.getExtent().getUniqueId(), LatchUtils.packPosition(location));
+    }
+
+    /**
+     * Add a block to this lock by its packed position. A lock only covers blocks of one world.
+     *
+     * @param world The unique id of the world of the block
+     * @param position The packed position of the block
+     */
+    public void addPosition(UUID world, long position) {
+        if (this.worldId == NO_WORLD) {
+            this.worldId = worldIds.getId(world);
+        }
+        checkArgument(isInWorld(world), "Lock %s already covers blocks of another world.", this.name);
+
+        if (indexOf(position) < 0) {
+            final long[] positions = Arrays.copyOf(this.positions, this.positions.length + 1);
+            positions[this.positions.length] = position;
+            this.positions = positions;
+        }
+    }
+
+    public void removeLocation(Location<World> location) {
+        final int index = isInWorld(location.getExtent().getUniqueId()) ? indexOf(LatchUtils.packPosition(location)) : -1;
+
+        if (index >= 0) {
+            final long[] positions = new long[this.positions.length - 1];
+            System.arraycopy(this.positions, 0, positions, 0, index);
+            System.arraycopy(this.positions, index + 1, positions, index, positions.length - index);
+            this.positions = positions;
+        }
+    }
+
+    private boolean isInWorld(UUID world) {
+        return this.worldId != NO_WORLD && worldIds.findId(world) == this.worldId;
+    }
+
+    private int indexOf(long position) {
+        for (int i = 0; i < this.positions.length; i++) {
+            if (this.positions[i] == position) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     public void setOwner(UUID uuid) {
@@ -122,33 +235,96 @@ public class Lock {
     }
 
     public void addAccess(UUID uuid) {
-        this.accessors.add(uuid);
+        final int id = playerIds.getId(uuid);
+        final int index = Arrays.binarySearch(this.accessors, id);
+
+        if (index < 0) {
+            final int insertAt = -index - 1;
+            final int[] accessors = new int[this.accessors.length + 1];
+            System.arraycopy(this.accessors, 0, accessors, 0, insertAt);
+            accessors[insertAt] = id;
+            System.arraycopy(this.accessors, insertAt, accessors, insertAt + 1, this.accessors.length - insertAt);
+            this.accessors = accessors;
+        }
     }
 
     public void removeAccess(UUID uuid) {
-        this.accessors.remove(uuid);
+        final int id = playerIds.findId(uuid);
+        final int index = id < 0 ? -1 : Arrays.binarySearch(this.accessors, id);
+
+        if (index >= 0) {
+            final int[] accessors = new int[this.accessors.length - 1];
+            System.arraycopy(this.accessors, 0, accessors, 0, index);
+            System.arraycopy(this.accessors, index + 1, accessors, index, accessors.length - index);
+            this.accessors = accessors;
+        }
+    }
+
+    public void clearAccess() {
+        this.accessors = new int[0];
+    }
+
+    public boolean hasAccess(UUID uuid) {
+        final int id = playerIds.findId(uuid);
+
+        return id >= 0 && Arrays.binarySearch(this.accessors, id) >= 0;
     }
 
+    /**
+     * Get the players able to access this lock. Changing the returned set does not change the lock.
+     *
+     * @return The unique ids of the players
+     */
     public Set<UUID> getAccessors() {
-        return this.accessors;
+        final Set<UUID> accessors = new HashSet<>();
+        for (int id : this.accessors) {
+            accessors.add(playerIds.getUniqueId(id));
+        }
+        return accessors;
+    }
+
+    /**
+     * Get the players able to access this lock as their player ids, which only mean something within this server run.
+     *
+     * @return A sorted copy of the ids
+     */
+    public int[] getAccessorIds() {
+        return this.accessors.clone();
     }
 
+    /**
+     * Get the names of the players able to access this lock, looking up the ones which aren't known yet in the background. Those show as
+     * a placeholder with the start of their unique id until the lookup is done, or for good if the player could not be found.
+     *
+     * @return The names
+     */
     public List<String> getAbleToAccessNames() {
         final List<String> names = new ArrayList<>();
 
-        Optional<UserStorageService> userStorageService = Sponge.getGame().getServiceManager().provide(UserStorageService.class);
+        final NameCache nameCache = Latch.getLockManager().getNameCache();
+
+        final Set<UUID> accessors = getAccessors();
+
+        for (UUID uuid : accessors) {
+            final Optional<String> name = nameCache.getCachedName(uuid);
+            final String shortId = uuid.toString().substring(0, 8);
 
-        if (userStorageService.isPresent()) {
-            for (UUID uuid : this.accessors) {
-                userStorageService.get().get(uuid).ifPresent(u -> names.add(u.getName()));
+            if (name.isPresent()) {
+                names.add(name.get());
+            } else if (nameCache.isCached(Collections.singleton(uuid))) {
+                names.add("(unknown " + shortId + ")");
+            } else {
+                names.add("(looking up " + shortId + ")");
             }
         }
 
+        nameCache.prefetch(accessors);
+
         return names;
     }
 
     public boolean canAccess(UUID uniqueId) {
-        return this.accessors.contains(uniqueId) || this.owner.equals(uniqueId) || this.type == LockType.PUBLIC || Latch.getLockManager()
+        return this.owner.equals(uniqueId) || hasAccess(uniqueId) || this.type == LockType.PUBLIC || Latch.getLockManager()
             .isBypassing(uniqueId);
     }
 
@@ -157,25 +333,28 @@ public class Lock {
     }
 
     public String getOwnerName() {
-        final Optional<UserStorageService> userStorageService = Sponge.getGame().getServiceManager().provide(UserStorageService.class);
+        final NameCache nameCache = Latch.getLockManager().getNameCache();
 
-        if (userStorageService.isPresent()) {
-            Optional<User> user = userStorageService.get().get(this.owner);
-            if (user.isPresent()) {
-                return user.get().getName();
-            }
+        final Optional<String> name = nameCache.getCachedName(this.owner);
+
+        if (name.isPresent()) {
+            return name.get();
+        }
+        if (nameCache.isCached(Collections.singleton(this.owner))) {
+            return "(owner name not found)";
         }
-        return "(owner name not found)";
+
+        nameCache.prefetch(Collections.singleton(this.owner));
+        return "(looking up owner name)";
     }
 
     public Optional<Location<World>> getFirstLocation() {
-        final Optional<Location<World>> location = Optional.empty();
-        final Iterator<Location<World>> itr = this.locations.iterator();
-
-        if (itr.hasNext()) {
-            return Optional.of(itr.next());
+        if (this.positions.length == 0) {
+            return Optional.empty();
         }
-        return location;
+
+        final long position = this.positions[0];
+        return getWorld().map(world -> world.getLocation(LatchUtils.unpackX(position), LatchUtils.unpackY(position), LatchUtils.unpackZ(position)));
     }
 
     public void setSalt(byte[] salt) {
@@ -199,13 +378,19 @@ public class Lock {
     }
 
     public void updateLastAccessed() {
-        this.lastAccessed = LocalDateTime.now();
-        Sponge.getScheduler().createAsyncExecutor(Latch.getPluginContainer())
-            .execute(() -> Latch.getLockManager().updateLockAttributes(this.owner, this.name, this));
+        final LocalDateTime now = LocalDateTime.now();
+
+        //Access times only need to be roughly right, so moves smaller than the granularity aren't recorded
+        if (Duration.between(this.lastAccessed, now).compareTo(Latch.getLockManager().getAccessGranularity()) >= 0) {
+            this.lastAccessed = now;
+            Latch.getLockManager().recordAccess(this);
+        }
     }
 
     public static class Builder {
 
+        private long id;
+
         @Nullable private Set<Location<World>> locations;
         @Nullable private Set<UUID> accessors;
 
@@ -222,6 +407,12 @@ public class Lock {
 
         private Builder() {}
 
+        public Lock.Builder id(long id) {
+            this.id = id;
+
+            return this;
+        }
+
         public Lock.Builder owner(UUID owner) {
             this.owner = owner;
 
@@ -308,6 +499,7 @@ public class Lock {
             }
 
             return new Lock(
+                this.id,
                 this.owner,
                 this.type,
                 this.name,
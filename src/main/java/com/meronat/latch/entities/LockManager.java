@@ -28,43 +28,787 @@ package com.meronat.latch.entities;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.meronat.latch.Latch;
+import com.meronat.latch.LatchSettings;
 import com.meronat.latch.enums.LockType;
+import com.meronat.latch.interactions.InteractionPipeline;
 import com.meronat.latch.interactions.LockInteraction;
+import com.meronat.latch.storage.LockSnapshot;
+import com.meronat.latch.storage.LockOccupancy;
+import com.meronat.latch.storage.LockStorage;
+import com.meronat.latch.utils.LatchUtils;
+import com.meronat.latch.utils.NameCache;
+import com.meronat.latch.utils.PasswordService;
+import com.meronat.latch.utils.SectionBitmap;
+import org.spongepowered.api.Sponge;
 import org.spongepowered.api.block.BlockType;
+import org.spongepowered.api.scheduler.SpongeExecutorService;
+import org.spongepowered.api.util.Direction;
+import org.spongepowered.api.world.Chunk;
 import org.spongepowered.api.world.Location;
 import org.spongepowered.api.world.World;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
 
 public class LockManager {
 
-    private final HashMap<String, Integer> lockLimits = new HashMap<>();
     private final HashMap<UUID, LockInteraction> interactionData = new HashMap<>();
+    private final InteractionPipeline interactionPipeline = new InteractionPipeline();
+    private final PasswordService passwordService = new PasswordService();
+    private final AccessTokens accessTokens = new AccessTokens();
+    private final NameCache nameCache = new NameCache();
 
     private final Set<UUID> bypassing = new HashSet<>();
 
-    private Set<String> lockableBlocks = new HashSet<>();
+    //Locks of every loaded world, keyed by world and then by packed block position
+    private final Map<UUID, Map<Long, Lock>> locationIndex = new ConcurrentHashMap<>();
+
+    //Sections with any locked location, null until it has been loaded
+    @Nullable private volatile LockOccupancy occupancy;
+
+    //Locations of locks protected from redstone, null until it has been loaded
+    @Nullable private volatile SectionBitmap redstoneProtected;
+
+    //Blocks which locks above them depend on, null until it has been loaded
+    @Nullable private volatile SectionBitmap supportBlocks;
+
+    //Changes made to the section summaries while they are being recounted from storage, null when they aren't
+    @Nullable private List<SectionChange> recountChanges;
+    private final Object sectionLock = new Object();
+
+    //Chunks whose locks are in the index, by world, when locks are loaded per chunk
+    @Nullable private Map<UUID, Set<Long>> indexedChunks;
+    @Nullable private SpongeExecutorService asyncExecutor;
+    @Nullable private SpongeExecutorService syncExecutor;
+
+    //Bumped by every change to the index. The chunks a change touched remember the version it was given, so a chunk being fetched can
+    //tell it raced a change to that chunk
+    private final AtomicLong indexVersion = new AtomicLong();
+    private final Map<UUID, Map<Long, Long>> chunkVersions = new ConcurrentHashMap<>();
+    //The version of the last bulk delete, which could have touched any chunk
+    private volatile long bulkVersion;
+
     private Set<String> restrictedBlocks = new HashSet<>();
     private Set<String> protectBelowBlocks = new HashSet<>();
+    //The same blocks by the object name locks record
+    private volatile Set<String> protectBelowObjects = new HashSet<>();
+
+    //Built from the lockable blocks it holds and the block lists above, and replaced as a whole whenever any of them change
+    private volatile BlockClassification blockClassification = BlockClassification.EMPTY;
+    //Held while the block lists change, so two changes can't both start from the same classification
+    private final Object blockListLock = new Object();
 
-    private boolean protectFromRedstone = false;
+    //Access times waiting to be written, as epoch seconds by lock ID
+    private final Map<Long, Long> pendingAccessTimes = new ConcurrentHashMap<>();
 
     public Optional<Lock> getLock(Location location) {
-        return Latch.getStorageHandler().getLockByLocation(location);
+        final Map<Long, Lock> worldIndex = this.locationIndex.get(location.getExtent().getUniqueId());
+
+        final long position = LatchUtils.packPosition(location);
+
+        //Most blocks asked about are nowhere near a lock
+        final LockOccupancy occupancy = this.occupancy;
+        if (occupancy != null && !occupancy.isOccupied(location.getExtent().getUniqueId(), position)) {
+            return Optional.empty();
+        }
+
+        //Only worlds and chunks we haven't indexed (yet) need to go to the database
+        if (worldIndex == null || !isChunkIndexed(location.getExtent().getUniqueId(), position)) {
+            return Latch.getStorageHandler().getLockByLocation(location);
+        }
+        return Optional.ofNullable(worldIndex.get(position));
+    }
+
+    /**
+     * Look up the locks of many locations at once, such as every block of an explosion. Whatever isn't indexed is fetched from storage
+     * together rather than one location at a time.
+     *
+     * @param locations The locations to look up
+     * @return The lock of each location which has one
+     */
+    public Map<Location<World>, Lock> getLocks(Collection<Location<World>> locations) {
+        final Map<Location<World>, Lock> locks = new HashMap<>();
+        final List<Location<World>> unindexed = new ArrayList<>();
+        final LockOccupancy occupancy = this.occupancy;
+
+        for (Location<World> location : locations) {
+            final UUID world = location.getExtent().getUniqueId();
+            final long position = LatchUtils.packPosition(location);
+
+            if (occupancy != null && !occupancy.isOccupied(world, position)) {
+                continue;
+            }
+
+            final Map<Long, Lock> worldIndex = this.locationIndex.get(world);
+            if (worldIndex == null || !isChunkIndexed(world, position)) {
+                unindexed.add(location);
+            } else {
+                final Lock lock = worldIndex.get(position);
+                if (lock != null) {
+                    locks.put(location, lock);
+                }
+            }
+        }
+
+        if (!unindexed.isEmpty()) {
+            final Map<UUID, Map<Long, Lock>> stored = new HashMap<>();
+            for (Lock lock : Latch.getStorageHandler().getLocksByLocations(unindexed)) {
+                if (lock.getWorldUniqueId().isPresent()) {
+                    final Map<Long, Lock> worldLocks = stored.computeIfAbsent(lock.getWorldUniqueId().get(), world -> new HashMap<>());
+                    for (long position : lock.getPositions()) {
+                        worldLocks.put(position, lock);
+                    }
+                }
+            }
+
+            for (Location<World> location : unindexed) {
+                final Lock lock = stored.getOrDefault(location.getExtent().getUniqueId(), Collections.emptyMap()).get(LatchUtils.packPosition(location));
+                if (lock != null) {
+                    locks.put(location, lock);
+                }
+            }
+        }
+
+        return locks;
+    }
+
+    /**
+     * Get a number which moves on whenever a lock is added to, changed in or taken out of the index, so anything holding on to a lock it
+     * looked up can tell when to look again.
+     *
+     * @return The version of the index
+     */
+    public long getIndexVersion() {
+        return this.indexVersion.get();
+    }
+
+    private boolean isChunkIndexed(UUID world, long position) {
+        if (this.indexedChunks == null) {
+            return true;
+        }
+
+        final Set<Long> chunks = this.indexedChunks.get(world);
+        return chunks != null && chunks.contains(position >>> 20);
+    }
+
+    private static long getChunkKey(int chunkX, int chunkZ) {
+        return LatchUtils.packPosition(chunkX << 4, 0, chunkZ << 4) >>> 20;
+    }
+
+    /**
+     * Switch between indexing every lock of a world and only the locks of its loaded chunks.
+     *
+     * @param loadPerChunk Whether to only index the locks of loaded chunks
+     */
+    public void setLoadPerChunk(boolean loadPerChunk) {
+        if (loadPerChunk) {
+            this.indexedChunks = new ConcurrentHashMap<>();
+            this.asyncExecutor = Sponge.getScheduler().createAsyncExecutor(Latch.getPluginContainer());
+            this.syncExecutor = Sponge.getScheduler().createSyncExecutor(Latch.getPluginContainer());
+        } else {
+            this.indexedChunks = null;
+        }
+    }
+
+    public boolean isLoadPerChunk() {
+        return this.indexedChunks != null;
+    }
+
+    public void loadWorld(World world) {
+        if (this.indexedChunks != null) {
+            //Sorted, so the locks of a chunk can be evicted as one range
+            this.locationIndex.put(world.getUniqueId(), new ConcurrentSkipListMap<>());
+            this.indexedChunks.put(world.getUniqueId(), ConcurrentHashMap.newKeySet());
+
+            for (Chunk chunk : world.getLoadedChunks()) {
+                loadChunk(chunk);
+            }
+            return;
+        }
+
+        final Map<Long, Lock> worldIndex = new ConcurrentHashMap<>();
+
+        for (Lock lock : Latch.getStorageHandler().getLocksInWorld(world.getUniqueId())) {
+            if (lock.getWorldUniqueId().filter(world.getUniqueId()::equals).isPresent()) {
+                for (long position : lock.getPositions()) {
+                    worldIndex.put(position, lock);
+                }
+            }
+        }
+
+        this.locationIndex.put(world.getUniqueId(), worldIndex);
+
+        //Bits built from the index don't cover worlds loaded after them
+        changeSections((occupancy, redstoneProtected, supportBlocks) -> {
+            if (redstoneProtected != null) {
+                setRedstoneProtected(redstoneProtected, world.getUniqueId(), worldIndex);
+            }
+            if (supportBlocks != null) {
+                setSupportBlocks(supportBlocks, world.getUniqueId(), worldIndex);
+            }
+        });
+    }
+
+    /**
+     * Bring up the index of every loaded world from a snapshot, then catch up on whatever changed in storage since it was written.
+     *
+     * @param file The snapshot file
+     * @return Whether the snapshot could be used, if not the worlds still have to be loaded
+     */
+    public boolean loadSnapshot(Path file) {
+        final Optional<LockSnapshot> optionalSnapshot = LockSnapshot.read(file);
+        if (!optionalSnapshot.isPresent()) {
+            return false;
+        }
+
+        final LockSnapshot snapshot = optionalSnapshot.get();
+        final LockStorage storage = Latch.getStorageHandler();
+
+        //A snapshot ahead of the storage was written from some other copy of it
+        if (snapshot.getChangeCounter() > storage.getChangeCounter()) {
+            Latch.getLogger().warn("Ignoring lock snapshot " + file + " as it is newer than the storage.");
+            return false;
+        }
+
+        for (World world : Sponge.getServer().getWorlds()) {
+            this.locationIndex.put(world.getUniqueId(), snapshot.getWorldIndex(world.getUniqueId()));
+        }
+
+        final Set<Long> deleted = storage.getLocksDeletedSince(snapshot.getChangeCounter());
+        final List<Lock> changed = storage.getLocksChangedSince(snapshot.getChangeCounter());
+
+        //Take out every outdated lock before indexing the changed ones, as locations can move between locks
+        for (Long id : deleted) {
+            final Lock lock = snapshot.getLocks().get(id);
+            if (lock != null) {
+                lock.getLocations().forEach(this::unindexLocation);
+            }
+        }
+        for (Lock lock : changed) {
+            final Lock outdated = snapshot.getLocks().get(lock.getId());
+            if (outdated != null) {
+                outdated.getLocations().forEach(this::unindexLocation);
+            }
+        }
+        changed.forEach(this::indexLock);
+
+        return true;
+    }
+
+    /**
+     * Load which sections have locks, from the file written on the last shutdown if storage hasn't changed since, otherwise from storage.
+     *
+     * @param file The occupancy file
+     */
+    public void loadOccupancy(Path file) {
+        final LockStorage storage = Latch.getStorageHandler();
+        final Optional<LockOccupancy> saved = LockOccupancy.read(file, storage.getChangeCounter());
+
+        this.occupancy = saved.isPresent() ? saved.get() : storage.getOccupancy().orElse(null);
+    }
+
+    public void saveOccupancy(Path file) {
+        final LockOccupancy occupancy = this.occupancy;
+        if (occupancy != null) {
+            occupancy.write(file, Latch.getStorageHandler().getChangeCounter());
+        }
+    }
+
+    private void occupy(Lock lock) {
+        lock.getLocations().forEach(location -> occupy(lock, location));
+    }
+
+    //Keeps the section summaries in step with a location being added to a lock
+    private void occupy(Lock lock, Location<World> location) {
+        final UUID world = location.getExtent().getUniqueId();
+        final long position = LatchUtils.packPosition(location);
+        final boolean protectFromRedstone = lock.getProtectFromRedstone();
+        final boolean protectBelow = this.protectBelowObjects.contains(lock.getLockedObject());
+
+        changeSections((occupancy, redstoneProtected, supportBlocks) -> {
+            if (occupancy != null) {
+                occupancy.add(world, position);
+            }
+            if (redstoneProtected != null) {
+                if (protectFromRedstone) {
+                    redstoneProtected.set(world, position);
+                } else {
+                    redstoneProtected.clear(world, position);
+                }
+            }
+            if (supportBlocks != null && protectBelow) {
+                supportBlocks.set(world, LatchUtils.packPositionBelow(position));
+            }
+        });
+    }
+
+    //Keeps the section summaries in step with a location being removed from its lock
+    private void vacate(Location<World> location) {
+        final UUID world = location.getExtent().getUniqueId();
+        final long position = LatchUtils.packPosition(location);
+
+        final SectionChange clearBits = (occupancy, redstoneProtected, supportBlocks) -> {
+            if (redstoneProtected != null) {
+                redstoneProtected.clear(world, position);
+            }
+            if (supportBlocks != null) {
+                supportBlocks.clear(world, LatchUtils.packPositionBelow(position));
+            }
+        };
+
+        //A removal may already be in a recount, and counting it twice could empty a section which still has locks, so only the bits
+        //are cleared again on a recount
+        changeSections((occupancy, redstoneProtected, supportBlocks) -> {
+            if (occupancy != null) {
+                occupancy.remove(world, position);
+            }
+            clearBits.apply(null, redstoneProtected, supportBlocks);
+        }, clearBits);
+    }
+
+    private void changeSections(SectionChange change) {
+        changeSections(change, change);
+    }
+
+    //Applies a change to the section summaries, and to the ones being recounted once they are done
+    private void changeSections(SectionChange change, SectionChange recounted) {
+        synchronized (this.sectionLock) {
+            change.apply(this.occupancy, this.redstoneProtected, this.supportBlocks);
+
+            if (this.recountChanges != null) {
+                this.recountChanges.add(recounted);
+            }
+        }
+    }
+
+    //Without every lock in the index there is no telling where deleted locks were, so count again. Synchronized so two bulk deletes
+    //don't share the changes recorded while counting
+    private synchronized void recountSections() {
+        synchronized (this.sectionLock) {
+            this.recountChanges = new ArrayList<>();
+        }
+
+        LockOccupancy occupancy = null;
+        SectionBitmap redstoneProtected = null;
+        SectionBitmap supportBlocks = null;
+
+        try {
+            if (this.occupancy != null) {
+                occupancy = Latch.getStorageHandler().getOccupancy().orElse(null);
+            }
+            if (this.redstoneProtected != null) {
+                redstoneProtected = Latch.getStorageHandler().getRedstoneProtectedLocations().orElse(null);
+            }
+            if (this.supportBlocks != null) {
+                supportBlocks = Latch.getStorageHandler().getSupportBlocks(this.protectBelowObjects).orElse(null);
+            }
+        } finally {
+            synchronized (this.sectionLock) {
+                //Locations added while counting may be missing from the count, so they are added again before it is used
+                for (SectionChange change : this.recountChanges) {
+                    change.apply(occupancy, redstoneProtected, supportBlocks);
+                }
+                this.recountChanges = null;
+
+                if (occupancy != null) {
+                    this.occupancy = occupancy;
+                }
+                if (redstoneProtected != null) {
+                    this.redstoneProtected = redstoneProtected;
+                }
+                if (supportBlocks != null) {
+                    this.supportBlocks = supportBlocks;
+                }
+            }
+        }
+    }
+
+    /**
+     * Load which locations are protected from redstone. Call once the locks of the loaded worlds are in the index, which holds all of them
+     * unless locks are loaded per chunk, so only then does it take a pass over storage.
+     */
+    public void loadRedstoneProtection() {
+        if (this.indexedChunks != null) {
+            this.redstoneProtected = Latch.getStorageHandler().getRedstoneProtectedLocations().orElse(null);
+            return;
+        }
+
+        final SectionBitmap redstoneProtected = new SectionBitmap();
+        this.locationIndex.forEach((world, worldIndex) -> setRedstoneProtected(redstoneProtected, world, worldIndex));
+        this.redstoneProtected = redstoneProtected;
+    }
+
+    private static void setRedstoneProtected(SectionBitmap redstoneProtected, UUID world, Map<Long, Lock> worldIndex) {
+        worldIndex.forEach((position, lock) -> {
+            if (lock.getProtectFromRedstone()) {
+                redstoneProtected.set(world, position);
+            }
+        });
+    }
+
+    /**
+     * Check whether a location belongs to a lock protected from redstone, without loading the lock.
+     *
+     * @param location The location to check
+     * @return Whether the location is protected from redstone
+     */
+    public boolean isRedstoneProtected(Location<World> location) {
+        final SectionBitmap redstoneProtected = this.redstoneProtected;
+        if (redstoneProtected == null) {
+            return getLock(location).map(Lock::getProtectFromRedstone).orElse(false);
+        }
+        return redstoneProtected.get(location.getExtent().getUniqueId(), LatchUtils.packPosition(location));
+    }
+
+    private void updateRedstoneProtection(Lock lock, Location<World> location) {
+        final UUID world = location.getExtent().getUniqueId();
+        final long position = LatchUtils.packPosition(location);
+        final boolean protectFromRedstone = lock.getProtectFromRedstone();
+
+        changeSections((occupancy, redstoneProtected, supportBlocks) -> {
+            if (redstoneProtected != null) {
+                if (protectFromRedstone) {
+                    redstoneProtected.set(world, position);
+                } else {
+                    redstoneProtected.clear(world, position);
+                }
+            }
+        });
+    }
+
+    /**
+     * Load which blocks locks above them depend on. Like {@link #loadRedstoneProtection()}, call once the locks of the loaded worlds are
+     * in the index.
+     */
+    public void loadSupportBlocks() {
+        if (this.indexedChunks != null) {
+            this.supportBlocks = Latch.getStorageHandler().getSupportBlocks(this.protectBelowObjects).orElse(null);
+            return;
+        }
+
+        final SectionBitmap supportBlocks = new SectionBitmap();
+        this.locationIndex.forEach((world, worldIndex) -> setSupportBlocks(supportBlocks, world, worldIndex));
+        this.supportBlocks = supportBlocks;
+    }
+
+    private void setSupportBlocks(SectionBitmap supportBlocks, UUID world, Map<Long, Lock> worldIndex) {
+        worldIndex.forEach((position, lock) -> {
+            if (this.protectBelowObjects.contains(lock.getLockedObject())) {
+                supportBlocks.set(world, LatchUtils.packPositionBelow(position));
+            }
+        });
+    }
+
+    /**
+     * Check whether a block is depended on by a lock above it, such as the block under a locked door.
+     *
+     * @param location The location of the block
+     * @return Whether a lock above depends on the block
+     */
+    public boolean isSupportBlock(Location<World> location) {
+        final SectionBitmap supportBlocks = this.supportBlocks;
+        if (supportBlocks == null) {
+            final Location<World> above = location.getBlockRelative(Direction.UP);
+            return getLock(above).isPresent() && isProtectBelowBlocks(above.getBlockType());
+        }
+        return supportBlocks.get(location.getExtent().getUniqueId(), LatchUtils.packPosition(location));
+    }
+
+    public void unloadWorld(World world) {
+        this.locationIndex.remove(world.getUniqueId());
+
+        if (this.indexedChunks != null) {
+            this.indexedChunks.remove(world.getUniqueId());
+            this.chunkVersions.remove(world.getUniqueId());
+            return;
+        }
+
+        //Bits built from the index are set again when the world loads, and its locks may be purged meanwhile
+        changeSections((occupancy, redstoneProtected, supportBlocks) -> {
+            if (redstoneProtected != null) {
+                redstoneProtected.clearWorld(world.getUniqueId());
+            }
+            if (supportBlocks != null) {
+                supportBlocks.clearWorld(world.getUniqueId());
+            }
+        });
+    }
+
+    /**
+     * Fetch the locks of a chunk in the background and add them to the index once they are in.
+     *
+     * @param chunk The chunk which was loaded
+     */
+    public void loadChunk(Chunk chunk) {
+        if (this.asyncExecutor == null || this.syncExecutor == null) {
+            return;
+        }
+
+        final SpongeExecutorService syncExecutor = this.syncExecutor;
+        final UUID world = chunk.getWorld().getUniqueId();
+        final int chunkX = chunk.getPosition().getX();
+        final int chunkZ = chunk.getPosition().getZ();
+        final long version = this.indexVersion.get();
+
+        this.asyncExecutor.execute(() -> {
+            final List<Lock> locks = Latch.getStorageHandler().getLocksInChunk(world, chunkX, chunkZ);
+            syncExecutor.execute(() -> indexChunk(chunk, locks, version));
+        });
+    }
+
+    private void indexChunk(Chunk chunk, List<Lock> locks, long version) {
+        final UUID world = chunk.getWorld().getUniqueId();
+        final Set<Long> chunks = this.indexedChunks == null ? null : this.indexedChunks.get(world);
+        final Map<Long, Lock> worldIndex = this.locationIndex.get(world);
+
+        if (chunks == null || worldIndex == null || !chunk.isLoaded()) {
+            return;
+        }
+
+        final long chunkKey = getChunkKey(chunk.getPosition().getX(), chunk.getPosition().getZ());
+
+        //Locks of this chunk changed while these were being fetched, so they may already be outdated
+        final Map<Long, Long> versions = this.chunkVersions.get(world);
+        if (this.bulkVersion > version || (versions != null && versions.getOrDefault(chunkKey, 0L) > version)) {
+            loadChunk(chunk);
+            return;
+        }
+
+        for (Lock fetched : locks) {
+            //Locks spanning chunks may already be indexed from a neighbouring chunk, keep using that instance
+            if (!fetched.getWorldUniqueId().filter(world::equals).isPresent()) {
+                continue;
+            }
+
+            Lock lock = fetched;
+            for (long position : fetched.getPositions()) {
+                final Lock indexed = worldIndex.get(position);
+                if (indexed != null && indexed.getId() == fetched.getId()) {
+                    lock = indexed;
+                    break;
+                }
+            }
+
+            for (long position : lock.getPositions()) {
+                if (position >>> 20 == chunkKey) {
+                    worldIndex.put(position, lock);
+                }
+            }
+        }
+
+        chunks.add(chunkKey);
+        this.indexVersion.incrementAndGet();
+    }
+
+    public void unloadChunk(Chunk chunk) {
+        final UUID world = chunk.getWorld().getUniqueId();
+        final Set<Long> chunks = this.indexedChunks == null ? null : this.indexedChunks.get(world);
+        final Map<Long, Lock> worldIndex = this.locationIndex.get(world);
+
+        if (chunks == null || worldIndex == null) {
+            return;
+        }
+
+        final long chunkKey = getChunkKey(chunk.getPosition().getX(), chunk.getPosition().getZ());
+        chunks.remove(chunkKey);
+
+        //Every block of a chunk shares one range of packed positions, and per chunk indexes are sorted
+        ((NavigableMap<Long, Lock>) worldIndex).subMap(chunkKey << 20, true, chunkKey << 20 | 0xFFFFF, true).clear();
+        this.indexVersion.incrementAndGet();
+    }
+
+    private void indexLock(Lock lock) {
+        final Optional<UUID> world = lock.getWorldUniqueId();
+        final Map<Long, Lock> worldIndex = world.map(this.locationIndex::get).orElse(null);
+        if (worldIndex != null) {
+            for (long position : lock.getPositions()) {
+                if (isChunkIndexed(world.get(), position)) {
+                    worldIndex.put(position, lock);
+                }
+            }
+        }
+        world.ifPresent(uniqueId -> changeChunks(uniqueId, lock.getPositions()));
+    }
+
+    //Only replaces locations still indexed so an update racing a delete can't bring the lock back
+    private void reindexLock(Lock lock) {
+        final Map<Long, Lock> worldIndex = lock.getWorldUniqueId().map(this.locationIndex::get).orElse(null);
+        if (worldIndex != null) {
+            for (long position : lock.getPositions()) {
+                worldIndex.replace(position, lock);
+            }
+        }
+        lock.getWorldUniqueId().ifPresent(world -> changeChunks(world, lock.getPositions()));
+    }
+
+    private void unindexLocation(Location<World> location) {
+        final Map<Long, Lock> worldIndex = this.locationIndex.get(location.getExtent().getUniqueId());
+        if (worldIndex != null) {
+            worldIndex.remove(LatchUtils.packPosition(location));
+        }
+        changeChunks(location.getExtent().getUniqueId(), new long[] {LatchUtils.packPosition(location)});
+    }
+
+    //Records a change to the index against the chunks of the positions, which is only needed while chunks are fetched
+    private void changeChunks(UUID world, long[] positions) {
+        final long version = this.indexVersion.incrementAndGet();
+
+        if (this.indexedChunks != null) {
+            final Map<Long, Long> versions = this.chunkVersions.computeIfAbsent(world, w -> new ConcurrentHashMap<>());
+            for (long position : positions) {
+                versions.put(position >>> 20, version);
+            }
+        }
+    }
+
+    private Set<Lock> unindexLocks(Predicate<Lock> filter) {
+        final Set<Lock> unindexed = new HashSet<>();
+
+        for (Map<Long, Lock> worldIndex : this.locationIndex.values()) {
+            worldIndex.values().removeIf(lock -> {
+                if (filter.test(lock)) {
+                    unindexed.add(lock);
+                    return true;
+                }
+                return false;
+            });
+        }
+        this.bulkVersion = this.indexVersion.incrementAndGet();
+
+        return unindexed;
+    }
+
+    //Bulk deletes only report which locks went
+    private void forgetLocks(Set<Long> deleted) {
+        final Set<Lock> unindexed = unindexLocks(lock -> deleted.contains(lock.getId()));
+
+        if (deleted.isEmpty()) {
+            return;
+        }
+
+        //The index holds every lock of the loaded worlds unless they are loaded per chunk, so it knows where the deleted ones were
+        if (this.indexedChunks == null) {
+            unindexed.forEach(lock -> lock.getLocations().forEach(this::vacate));
+        } else {
+            recountSections();
+        }
     }
 
     public void createLock(Lock lock) {
         Latch.getStorageHandler().createLock(lock, lock.getLocations(), lock.getAccessors());
+        occupy(lock);
+        indexLock(lock);
+    }
+
+    public void createLocks(Collection<Lock> locks) {
+        Latch.getStorageHandler().createLocks(locks);
+        for (Lock lock : locks) {
+            if (lock.getId() != 0) {
+                occupy(lock);
+                indexLock(lock);
+            }
+        }
+    }
+
+    /**
+     * Take a lock which storage failed to create back out of the index and the section summaries, so it doesn't stay locked until the next
+     * restart. Call from the main thread.
+     *
+     * @param lock The lock which was never stored
+     */
+    public void forgetUnstoredLock(Lock lock) {
+        final Optional<UUID> world = lock.getWorldUniqueId();
+        final Map<Long, Lock> worldIndex = world.map(this.locationIndex::get).orElse(null);
+
+        for (Location<World> location : lock.getLocations()) {
+            final long position = LatchUtils.packPosition(location);
+
+            //Only vacate what is still this lock's, locations it lost meanwhile were already vacated
+            if (worldIndex == null || !isChunkIndexed(world.get(), position) || worldIndex.remove(position, lock)) {
+                vacate(location);
+            }
+        }
+        world.ifPresent(uniqueId -> changeChunks(uniqueId, lock.getPositions()));
     }
 
     public void deleteLock(Location<World> location, boolean deleteEntireLock) {
-        Latch.getStorageHandler().deleteLock(location, deleteEntireLock);
+        final Optional<Lock> optionalLock = getLock(location);
+
+        if (optionalLock.isPresent()) {
+            final Lock lock = optionalLock.get();
+
+            //The whole lock goes if asked to or if this was its last location
+            if (deleteEntireLock || lock.getLocationCount() <= 1) {
+                Latch.getStorageHandler().deleteLock(lock);
+                lock.getLocations().forEach(this::vacate);
+                lock.getLocations().forEach(this::unindexLocation);
+            } else {
+                Latch.getStorageHandler().removeLockLocation(lock, location);
+                vacate(location);
+                lock.removeLocation(location);
+                unindexLocation(location);
+            }
+        }
+    }
+
+    public int deleteLocksForPlayer(UUID player) {
+        final Set<Long> deleted = Latch.getStorageHandler().deleteLocksForPlayer(player);
+        forgetLocks(deleted);
+
+        return deleted.size();
+    }
+
+    public int clearLocksOlderThan(int days) {
+        flushAccessTimes();
+
+        final Set<Long> deleted = Latch.getStorageHandler().clearLocksOlderThan(days);
+        forgetLocks(deleted);
+
+        return deleted.size();
+    }
+
+    public void recordAccess(Lock lock) {
+        //Locks that haven't been stored yet will write their access time when they are created
+        if (lock.getId() != 0) {
+            this.pendingAccessTimes.put(lock.getId(), lock.getLastAccessed().atZone(ZoneId.systemDefault()).toEpochSecond());
+        }
+    }
+
+    public void flushAccessTimes() {
+        final Map<Long, Long> accessTimes = new HashMap<>();
+
+        for (Long id : this.pendingAccessTimes.keySet()) {
+            final Long accessed = this.pendingAccessTimes.remove(id);
+            if (accessed != null) {
+                accessTimes.put(id, accessed);
+            }
+        }
+
+        if (!accessTimes.isEmpty()) {
+            Latch.getStorageHandler().updateAccessTimes(accessTimes);
+        }
+    }
+
+    public Duration getAccessGranularity() {
+        return Latch.getSettings().getAccessTimeGranularity();
     }
 
     /*
@@ -75,6 +819,18 @@ public class LockManager {
         return lock.getLockType() == LockType.PASSWORD_ALWAYS || lock.getLockType() == LockType.PASSWORD_ONCE;
     }
 
+    public InteractionPipeline getInteractionPipeline() {
+        return this.interactionPipeline;
+    }
+
+    public PasswordService getPasswordService() {
+        return this.passwordService;
+    }
+
+    public NameCache getNameCache() {
+        return this.nameCache;
+    }
+
     public boolean hasInteractionData(UUID uniqueId) {
         return this.interactionData.containsKey(uniqueId);
     }
@@ -88,41 +844,74 @@ public class LockManager {
     }
 
     public void setLockableBlocks(List<String> lockableBlocks) {
-        this.lockableBlocks = new HashSet<>(lockableBlocks);
+        synchronized (this.blockListLock) {
+            classifyBlocks(new HashSet<>(lockableBlocks));
+        }
     }
 
     public boolean addLockableBlock(BlockType blockType) {
-        this.lockableBlocks.add(blockType.getId());
-        return Latch.getConfiguration().setLockableBlocks(ImmutableSet.copyOf(this.lockableBlocks));
+        synchronized (this.blockListLock) {
+            //Readers on other threads only ever see the set of a published classification, so it is changed as a copy
+            final Set<String> lockableBlocks = new HashSet<>(this.blockClassification.getLockableBlocks());
+            lockableBlocks.add(blockType.getId());
+            classifyBlocks(lockableBlocks);
+            return Latch.getConfiguration().setLockableBlocks(ImmutableSet.copyOf(lockableBlocks));
+        }
     }
 
     public boolean removeLockableBlock(BlockType blockType) {
-        this.lockableBlocks.remove(blockType.getId());
-        return Latch.getConfiguration().setLockableBlocks(ImmutableSet.copyOf(this.lockableBlocks));
+        synchronized (this.blockListLock) {
+            final Set<String> lockableBlocks = new HashSet<>(this.blockClassification.getLockableBlocks());
+            lockableBlocks.remove(blockType.getId());
+            classifyBlocks(lockableBlocks);
+            return Latch.getConfiguration().setLockableBlocks(ImmutableSet.copyOf(lockableBlocks));
+        }
+    }
+
+    private void classifyBlocks(Set<String> lockableBlocks) {
+        this.blockClassification = BlockClassification.of(lockableBlocks, this.restrictedBlocks, this.protectBelowBlocks,
+            Latch.getSettings().allowOpeningLockedIron());
     }
 
     public Set<String> getLockableBlocks() {
-        return ImmutableSet.copyOf(this.lockableBlocks);
+        return this.blockClassification.getLockableBlocks();
     }
 
     public void setRestrictedBlocks(List<String> preventAdjacentToLocks) {
-        this.restrictedBlocks = new HashSet<>(preventAdjacentToLocks);
+        synchronized (this.blockListLock) {
+            this.restrictedBlocks = new HashSet<>(preventAdjacentToLocks);
+            classifyBlocks(this.blockClassification.getLockableBlocks());
+        }
     }
 
     public void setProtectBelowBlocks(List<String> protectBelowBlocks) {
-        this.protectBelowBlocks = new HashSet<>(protectBelowBlocks);
+        synchronized (this.blockListLock) {
+            final Set<String> protectBelowObjects = new HashSet<>();
+            for (String id : protectBelowBlocks) {
+                Sponge.getRegistry().getType(BlockType.class, id)
+                    .ifPresent(type -> protectBelowObjects.add(LatchUtils.getBlockNameFromType(type)));
+            }
+
+            this.protectBelowBlocks = new HashSet<>(protectBelowBlocks);
+            this.protectBelowObjects = protectBelowObjects;
+            classifyBlocks(this.blockClassification.getLockableBlocks());
+        }
     }
 
     public boolean isRestrictedBlock(BlockType type) {
-        return this.restrictedBlocks.contains(type.getId());
+        return this.blockClassification.is(type, BlockClassification.RESTRICTED);
     }
 
     public boolean isLockableBlock(BlockType block) {
-        return this.lockableBlocks.contains(block.getId());
+        return this.blockClassification.is(block, BlockClassification.LOCKABLE);
     }
 
     public boolean isProtectBelowBlocks(BlockType block) {
-        return this.protectBelowBlocks.contains(block.getId());
+        return this.blockClassification.is(block, BlockClassification.PROTECT_BELOW);
+    }
+
+    public boolean isIronOpenable(BlockType block) {
+        return this.blockClassification.is(block, BlockClassification.IRON_OPENABLE);
     }
 
     public void removeInteractionData(UUID uniqueId) {
@@ -141,16 +930,58 @@ public class LockManager {
     }
 
     public void addLockLocation(Lock lock, Location<World> location) {
-        if (!lock.getLocations().contains(location)) {
+        if (!lock.hasLocation(location)) {
             Latch.getStorageHandler().addLockLocation(lock, location);
+            lock.addLocation(location);
+            occupy(lock, location);
+            indexLock(lock);
         }
     }
 
     public void removeAllLockAccess(Lock lock) {
-        lock.getAccessors().clear();
+        lock.clearAccess();
         Latch.getStorageHandler().removeAllLockAccess(lock);
     }
 
+    /**
+     * Let a player through a lock which asks for its password every time, once, without storing it.
+     *
+     * @param lock The lock
+     * @param uniqueId The unique id of the player
+     * @return Whether the pass was given, which it isn't while the lock has no storage id to tell it apart from other new locks
+     */
+    public boolean grantPasswordAccess(Lock lock, UUID uniqueId) {
+        if (lock.getId() == 0) {
+            return false;
+        }
+
+        this.accessTokens.grant(uniqueId, lock.getId(), Latch.getSettings().getPasswordAccessLifetime().toMillis());
+        return true;
+    }
+
+    public boolean hasPasswordAccess(Lock lock, UUID uniqueId) {
+        return lock.getId() != 0 && this.accessTokens.has(uniqueId, lock.getId());
+    }
+
+    public boolean consumePasswordAccess(Lock lock, UUID uniqueId) {
+        return lock.getId() != 0 && this.accessTokens.consume(uniqueId, lock.getId());
+    }
+
+    /**
+     * Take back the passes every player has for a lock, so a pass given for an old password stops working.
+     *
+     * @param lock The lock
+     */
+    public void revokePasswordAccess(Lock lock) {
+        if (lock.getId() != 0) {
+            this.accessTokens.revoke(lock.getId());
+        }
+    }
+
+    public void clearPasswordAccess(UUID uniqueId) {
+        this.accessTokens.clear(uniqueId);
+    }
+
     public void removeLockAccess(Lock lock, UUID uniqueId) {
         if (lock.canAccess(uniqueId)) {
             lock.removeAccess(uniqueId);
@@ -160,36 +991,32 @@ public class LockManager {
 
     public void updateLockAttributes(UUID originalOwner, String originalName, Lock lock) {
         Latch.getStorageHandler().updateLockAttributes(originalOwner, originalName, lock);
+        lock.getLocations().forEach(location -> updateRedstoneProtection(lock, location));
+        reindexLock(lock);
     }
 
     public List<Lock> getPlayersLocks(UUID uniqueId) {
         return Latch.getStorageHandler().getLocksByOwner(uniqueId);
     }
 
-    public void setLockLimits(HashMap<String, Integer> lockLimits) {
-        this.lockLimits.clear();
-        for (Map.Entry<String, Integer> limit : lockLimits.entrySet()) {
-            //Only add if limit >=0, otherwise no limit
-            if (limit.getValue() >= 0) {
-                this.lockLimits.put(limit.getKey().toLowerCase(), limit.getValue());
-            }
-        }
-    }
-
     public boolean isPlayerAtLockLimit(UUID player, LockType type) {
-        return Latch.getStorageHandler().isPlayerAtLockLimit(player, type, this.lockLimits);
+        final LatchSettings settings = Latch.getSettings();
+        return Latch.getStorageHandler().isPlayerAtLockLimit(player, type, settings.getLockLimit(type), settings.getTotalLockLimit());
     }
 
     public ImmutableMap<String, Integer> getLimits() {
-        return ImmutableMap.copyOf(this.lockLimits);
-    }
+        final LatchSettings settings = Latch.getSettings();
+        final ImmutableMap.Builder<String, Integer> limits = ImmutableMap.builder();
 
-    public boolean getProtectFromRedstone() {
-        return this.protectFromRedstone;
+        settings.getLockLimits().forEach((type, limit) -> limits.put(type.toString().toLowerCase(), limit));
+        if (settings.getTotalLockLimit() >= 0) {
+            limits.put("total", settings.getTotalLockLimit());
+        }
+        return limits.build();
     }
 
-    public void setProtectFromRedstone(boolean protectFromRedstone) {
-        this.protectFromRedstone = protectFromRedstone;
+    public boolean getProtectFromRedstone() {
+        return Latch.getSettings().protectFromRedstone();
     }
 
     public boolean isBypassing(UUID uuid) {
@@ -204,4 +1031,12 @@ public class LockManager {
         this.bypassing.remove(uuid);
     }
 
+    //One change to the section summaries, applied to whichever of them are loaded
+    @FunctionalInterface
+    private interface SectionChange {
+
+        void apply(@Nullable LockOccupancy occupancy, @Nullable SectionBitmap redstoneProtected, @Nullable SectionBitmap supportBlocks);
+
+    }
+
 }
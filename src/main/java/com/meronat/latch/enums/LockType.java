@@ -30,34 +30,50 @@ public enum LockType {
     /*
      * Accessible by everyone
      */
-    PUBLIC("Public"),
+    PUBLIC(0, "Public"),
 
     /*
      * Requires a password every time to use
      */
-    PASSWORD_ALWAYS("Password Always"),
+    PASSWORD_ALWAYS(1, "Password Always"),
 
     /*
      * Requires a password the first time a player accesses it
      */
-    PASSWORD_ONCE("Password Once"),
+    PASSWORD_ONCE(2, "Password Once"),
 
     /*
      * Owned/controlled by one person, access able to be shared
      */
-    PRIVATE("Private"),
+    PRIVATE(3, "Private"),
 
     /*
      * Allows all players to deposit items, only the owner to withdraw
      */
-    DONATION("Donation");
+    DONATION(4, "Donation");
 
+    //The stored form of the type, never reuse or change these
+    private final byte id;
     private final String humanReadable;
 
-    LockType(String human) {
+    LockType(int id, String human) {
+        this.id = (byte) id;
         this.humanReadable = human;
     }
 
+    public byte getId() {
+        return this.id;
+    }
+
+    public static LockType fromId(byte id) {
+        for (LockType type : values()) {
+            if (type.id == id) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("No lock type with id " + id);
+    }
+
     public String getHumanReadable() {
         return this.humanReadable;
     }
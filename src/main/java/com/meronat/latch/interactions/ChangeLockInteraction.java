@@ -29,6 +29,7 @@ import com.meronat.latch.Latch;
 import com.meronat.latch.entities.Lock;
 import com.meronat.latch.enums.LockType;
 import com.meronat.latch.utils.LatchUtils;
+import com.meronat.latch.utils.PasswordService;
 import org.spongepowered.api.block.BlockSnapshot;
 import org.spongepowered.api.entity.living.player.Player;
 import org.spongepowered.api.text.Text;
@@ -39,6 +40,8 @@ import org.spongepowered.api.world.World;
 import java.util.Collection;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 import javax.annotation.Nullable;
 
@@ -105,45 +108,87 @@ public class ChangeLockInteraction implements LockInteraction {
             return false;
         }
 
+        if (this.lockName != null && this.lockName.equalsIgnoreCase(lock.getName())) {
+            player.sendMessage(Text.of(TextColors.RED, "This lock already has this name."));
+            return false;
+        }
+
+        final UUID originalOwner = lock.getOwner();
+        final String originalName = lock.getName();
+        final LockType originalType = lock.getLockType();
+        final String lockedObject = lock.getLockedObject();
+
+        //Limits, names and hashing are done off the main thread, the lock itself is changed back on it
+        Latch.getLockManager().getInteractionPipeline().submit(player.getUniqueId(),
+            () -> prepareChange(lock, originalOwner, originalName, originalType, lockedObject), change -> player.sendMessage(change.get()));
+
+        return true;
+    }
+
+    private Supplier<Text> prepareChange(Lock lock, UUID originalOwner, String originalName, LockType originalType, String lockedObject) {
         //Check to make sure, if they're assigning a new owner, the new owner is not at their limit
         if (this.newOwner != null || this.type != null) {
-            if (Latch.getLockManager().isPlayerAtLockLimit(this.newOwner == null ? lock.getOwner() : this.newOwner,
-                    this.type == null ? lock.getLockType() : this.type)) {
-                player.sendMessage(Text.of(TextColors.RED, "You cannot change this lock due to lock limits."));
-                return false;
+            if (Latch.getLockManager().isPlayerAtLockLimit(this.newOwner == null ? originalOwner : this.newOwner,
+                    this.type == null ? originalType : this.type)) {
+                return () -> Text.of(TextColors.RED, "You cannot change this lock due to lock limits.");
             }
         }
 
-        final UUID originalOwner = lock.getOwner();
-        final String originalName = lock.getName();
+        //Hash a new password before touching the lock, in case the password workers are too busy
+        byte[] salt = null;
+        String hashedPassword = null;
 
-        if (this.lockName != null) {
-            if (this.lockName.equalsIgnoreCase(originalName)) {
-                player.sendMessage(Text.of(TextColors.RED, "This lock already has this name."));
-                return false;
+        if (this.password != null) {
+            salt = PasswordService.generateSalt();
+            try {
+                hashedPassword = Latch.getLockManager().getPasswordService().hash(this.password, salt).join();
+            } catch (CompletionException e) {
+                return () -> Text.of(TextColors.RED, "Too many passwords are being checked right now, please try again shortly.");
             }
+        }
+
+        String name = originalName;
+
+        if (this.lockName != null) {
             if (!Latch.getLockManager().isUniqueName(this.player, this.lockName)) {
-                player.sendMessage(Text.of(TextColors.RED, "This lock name is already taken."));
-                return false;
+                return () -> Text.of(TextColors.RED, "This lock name is already taken.");
             }
-            lock.setName(this.lockName);
+            name = this.lockName;
+        }
+
+        //If assigning to a new owner - need to validate the name
+        if (this.newOwner != null && !Latch.getLockManager().isUniqueName(this.newOwner, name)) {
+            name = LatchUtils.getRandomLockName(this.newOwner, lockedObject);
+        }
+
+        final byte[] newSalt = salt;
+        final String newPassword = hashedPassword;
+        final String newName = name;
+
+        return () -> changeLock(lock, originalOwner, originalName, newSalt, newPassword, newName);
+    }
+
+    private Text changeLock(Lock lock, UUID originalOwner, String originalName, @Nullable byte[] salt, @Nullable String hashedPassword,
+        String name) {
+        //Renamed or handed over by someone else while this was being prepared, so the name checked may not hold anymore
+        if (!lock.getOwner().equals(originalOwner) || !lock.getName().equals(originalName)) {
+            return Text.of(TextColors.RED, "This lock was changed by someone else, please try again.");
         }
 
+        lock.setName(name);
+
         if (this.type != null) {
             lock.setType(type);
         }
         if (this.password != null) {
-            lock.setSalt(LatchUtils.generateSalt());
-            lock.changePassword(LatchUtils.hashPassword(this.password, lock.getSalt()));
+            lock.setSalt(salt);
+            lock.changePassword(hashedPassword);
 
-            //If changing password, need to clear out ability to access
+            //If changing password, need to clear out ability to access, including passes given for the old password
             Latch.getLockManager().removeAllLockAccess(lock);
+            Latch.getLockManager().revokePasswordAccess(lock);
         }
         if (this.newOwner != null) {
-            //If assigning to a new owner - need to validate the name
-            if (!Latch.getLockManager().isUniqueName(this.newOwner, lock.getName())) {
-                lock.setName(LatchUtils.getRandomLockName(this.newOwner, lock.getLockedObject()));
-            }
             lock.setOwner(this.newOwner);
         }
         if (this.membersToAdd != null) {
@@ -165,9 +210,7 @@ public class ChangeLockInteraction implements LockInteraction {
             Latch.getLockManager().updateLockAttributes(originalOwner, originalName, lock);
         }
 
-        player.sendMessage(Text.of(TextColors.DARK_GREEN, "Lock data has been successfully updated."));
-
-        return true;
+        return Text.of(TextColors.DARK_GREEN, "Lock data has been successfully updated.");
     }
 
     @Override
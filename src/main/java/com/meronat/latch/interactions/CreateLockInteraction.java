@@ -29,6 +29,7 @@ import com.meronat.latch.Latch;
 import com.meronat.latch.entities.Lock;
 import com.meronat.latch.enums.LockType;
 import com.meronat.latch.utils.LatchUtils;
+import com.meronat.latch.utils.PasswordService;
 import org.spongepowered.api.block.BlockSnapshot;
 import org.spongepowered.api.entity.living.player.Player;
 import org.spongepowered.api.text.Text;
@@ -39,7 +40,10 @@ import org.spongepowered.api.world.World;
 import java.time.LocalDateTime;
 import java.util.HashSet;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
 import javax.annotation.Nullable;
 
@@ -96,17 +100,32 @@ public class CreateLockInteraction implements LockInteraction {
             lockLocations.add(optionalOtherBlock.get());
         }
 
-        if (Latch.getLockManager().isPlayerAtLockLimit(player.getUniqueId(), this.type)) {
-            player.sendMessage(Text.of(TextColors.RED, "You have reached the limit for locks."));
-            return false;
+        final UUID owner = player.getUniqueId();
+        final String objectName = LatchUtils.getBlockNameFromType(blockState.getState().getType());
+
+        //Limits, names and hashing are done off the main thread, the lock itself is created back on it
+        Latch.getLockManager().getInteractionPipeline().submit(owner, () -> prepareLock(owner, location, lockLocations, objectName),
+            create -> player.sendMessage(create.get()));
+
+        return true;
+    }
+
+    private Supplier<Text> prepareLock(UUID owner, Location<World> location, Set<Location<World>> lockLocations, String objectName) {
+        if (Latch.getLockManager().isPlayerAtLockLimit(owner, this.type)) {
+            return () -> Text.of(TextColors.RED, "You have reached the limit for locks.");
         }
 
         byte[] salt = null;
+        String password = this.password;
 
         if (this.type.equals(LockType.PASSWORD_ALWAYS) || this.type.equals(LockType.PASSWORD_ONCE)) {
-            salt = LatchUtils.generateSalt();
+            salt = PasswordService.generateSalt();
 
-            this.password = LatchUtils.hashPassword(this.password, salt);
+            try {
+                password = Latch.getLockManager().getPasswordService().hash(password, salt).join();
+            } catch (CompletionException e) {
+                return () -> Text.of(TextColors.RED, "Too many passwords are being checked right now, please try again shortly.");
+            }
         }
 
         /* Investigate adding back with full API
@@ -130,24 +149,36 @@ public class CreateLockInteraction implements LockInteraction {
             return false;
         }*/
 
+        //Not shared with anything yet, so it can be built here, random names need the storage
         final Lock newLock = Lock.builder()
-                .owner(player.getUniqueId())
+                .owner(owner)
                 .type(this.type)
-                .name(this.name)
-                .objectName(LatchUtils.getBlockNameFromType(blockState.getState().getType()))
-                .password(this.password)
+                .name(this.name == null ? LatchUtils.getRandomLockName(owner, objectName) : this.name)
+                .objectName(objectName)
+                .password(password)
                 .salt(salt)
                 .locations(lockLocations)
                 .lastAccessed(LocalDateTime.now())
                 .protectFromRedstone(Latch.getLockManager().getProtectFromRedstone())
                 .build();
 
-        //Notify the player
-        player.sendMessage(Text.of(TextColors.DARK_GREEN, "You have created a ", TextColors.GRAY, this.type.getHumanReadable().toLowerCase(),
-                TextColors.DARK_GREEN, " lock called: ", TextColors.GRAY, newLock.getName()));
+        return () -> createLock(owner, location, lockLocations, newLock);
+    }
+
+    private Text createLock(UUID owner, Location<World> location, Set<Location<World>> lockLocations, Lock newLock) {
+        //Another interaction may have locked it in the meantime, checked on the main thread so no other create can slip in between
+        for (Location<World> lockLocation : lockLocations) {
+            final Optional<Lock> existing = Latch.getLockManager().getLock(lockLocation);
+            if (existing.isPresent() && (lockLocation.equals(location) || !existing.get().isOwnerOrBypassing(owner))) {
+                return Text.of(TextColors.RED, "There is already a lock here.");
+            }
+        }
+
         Latch.getLockManager().createLock(newLock);
 
-        return true;
+        //Notify the player
+        return Text.of(TextColors.DARK_GREEN, "You have created a ", TextColors.GRAY, this.type.getHumanReadable().toLowerCase(),
+                TextColors.DARK_GREEN, " lock called: ", TextColors.GRAY, newLock.getName());
     }
 
     @Override
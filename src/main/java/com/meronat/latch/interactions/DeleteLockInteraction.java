@@ -64,10 +64,13 @@ public class DeleteLockInteraction implements LockInteraction {
             return false;
         }
 
-        Latch.getLockManager().deleteLock(location, true);
+        //Queued behind the player's earlier interactions, so a change they made just before can't land after the delete
+        Latch.getLockManager().getInteractionPipeline().submit(player.getUniqueId(), () -> {
+            Latch.getLockManager().deleteLock(location, true);
 
-        player.sendMessage(
-            Text.of(TextColors.DARK_GREEN, "You have deleted this ", TextColors.GRAY, lock.getLockedObject(), TextColors.DARK_GREEN, " lock."));
+            player.sendMessage(Text.of(TextColors.DARK_GREEN, "You have deleted this ", TextColors.GRAY, lock.getLockedObject(),
+                TextColors.DARK_GREEN, " lock."));
+        });
 
         return true;
     }
@@ -27,6 +27,7 @@ package com.meronat.latch.interactions;
 
 import com.meronat.latch.Latch;
 import com.meronat.latch.entities.Lock;
+import com.meronat.latch.utils.NameCache;
 import org.spongepowered.api.Sponge;
 import org.spongepowered.api.block.BlockSnapshot;
 import org.spongepowered.api.entity.living.player.Player;
@@ -65,6 +66,24 @@ public class DisplayLockInteraction implements LockInteraction {
 
         final Lock lock = optionalLock.get();
 
+        final NameCache nameCache = Latch.getLockManager().getNameCache();
+
+        final List<UUID> players = new ArrayList<>(lock.getAccessors());
+        players.add(lock.getOwner());
+
+        //Names which aren't known yet are looked up together off the main thread before showing the lock
+        if (nameCache.isCached(players)) {
+            display(player, lock, location);
+        } else {
+            Latch.getLockManager().getInteractionPipeline().submit(player.getUniqueId(), () -> nameCache.resolve(players),
+                names -> display(player, lock, location));
+        }
+
+        //Return false to cancel interactions when using this command
+        return false;
+    }
+
+    private void display(Player player, Lock lock, Location<World> location) {
         final List<Text> contents = new ArrayList<>();
 
         contents.add(Text.of(TextColors.GOLD, "Owner: ", TextColors.GRAY, lock.getOwnerName()));
@@ -72,7 +91,7 @@ public class DisplayLockInteraction implements LockInteraction {
         contents.add(Text.of(TextColors.GOLD, "Last Accessed: ", TextColors.GRAY, formatter.format(lock.getLastAccessed())));
         contents.add(Text.of(TextColors.GOLD, "Block/Entity Type: ", TextColors.GRAY,
             lock.getLockedObject().substring(0, 1).toUpperCase() + lock.getLockedObject().substring(1)));
-        if (Latch.getConfig().getNode("protect_from_redstone").getBoolean(false)) {
+        if (Latch.getSettings().protectFromRedstone()) {
             contents.add(Text.of(TextColors.GOLD, "Redstone Protection: ", TextColors.GRAY, lock.getProtectFromRedstone()));
         }
         contents.add(Text.of(TextColors.GOLD, "Location: ", TextColors.GRAY,
@@ -95,9 +114,6 @@ public class DisplayLockInteraction implements LockInteraction {
                 player.sendMessage(t);
             }
         }
-
-        //Return false to cancel interactions when using this command
-        return false;
     }
 
     @Override
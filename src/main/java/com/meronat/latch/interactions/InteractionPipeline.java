@@ -0,0 +1,113 @@
+/*
+ * This file is part of Latch, licensed under the MIT License.
+ *
+ * Copyright (c) 2016-2018 IchorPowered <https://github.com/IchorPowered>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.meronat.latch.interactions;
+
+import com.meronat.latch.Latch;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.scheduler.SpongeExecutorService;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+/**
+ * Runs the storage side of lock interactions off the main thread and hands the result back to it. The interactions of one player run one
+ * after the other in the order they were submitted, so a player's second click never overtakes their first.
+ *
+ * <p>Only reads and password hashing belong off the main thread. Locks and the lock index are read by the main thread on every event, so
+ * they are only ever changed in the completion.</p>
+ */
+public final class InteractionPipeline {
+
+    //The last interaction submitted for each player, which the next one waits on
+    private final Map<UUID, CompletableFuture<Void>> queues = new ConcurrentHashMap<>();
+
+    @Nullable private SpongeExecutorService storageExecutor;
+    @Nullable private SpongeExecutorService syncExecutor;
+
+    /**
+     * Queue an interaction of a player.
+     *
+     * @param player The unique id of the player interacting
+     * @param storageWork The work run off the main thread, such as storage queries and password hashing, which must not change any lock
+     * @param completion Run on the main thread with the result, to change the locks and tell the player
+     * @param <T> The type of result
+     */
+    public <T> void submit(UUID player, Supplier<T> storageWork, Consumer<T> completion) {
+        final SpongeExecutorService storageExecutor = getStorageExecutor();
+        final SpongeExecutorService syncExecutor = getSyncExecutor();
+
+        final CompletableFuture<Void> next;
+
+        synchronized (this.queues) {
+            final CompletableFuture<Void> previous = this.queues.getOrDefault(player, CompletableFuture.completedFuture(null));
+
+            next = previous
+                .thenApplyAsync(ignored -> storageWork.get(), storageExecutor)
+                .thenAcceptAsync(completion, syncExecutor)
+                .exceptionally(e -> {
+                    Latch.getLogger().error("Error handling a lock interaction of " + player + ":");
+                    e.printStackTrace();
+                    return null;
+                });
+
+            this.queues.put(player, next);
+        }
+
+        //Forget the player once their queue runs dry
+        next.thenRun(() -> this.queues.remove(player, next));
+    }
+
+    /**
+     * Queue an interaction of a player which has nothing to do off the main thread, so it still runs after their earlier ones.
+     *
+     * @param player The unique id of the player interacting
+     * @param completion Run on the main thread
+     */
+    public void submit(UUID player, Runnable completion) {
+        submit(player, () -> null, ignored -> completion.run());
+    }
+
+    private SpongeExecutorService getStorageExecutor() {
+        if (this.storageExecutor == null) {
+            this.storageExecutor = Sponge.getScheduler().createAsyncExecutor(Latch.getPluginContainer());
+        }
+        return this.storageExecutor;
+    }
+
+    private SpongeExecutorService getSyncExecutor() {
+        if (this.syncExecutor == null) {
+            this.syncExecutor = Sponge.getScheduler().createSyncExecutor(Latch.getPluginContainer());
+        }
+        return this.syncExecutor;
+    }
+
+}
@@ -29,6 +29,7 @@ import com.meronat.latch.Latch;
 import com.meronat.latch.entities.Lock;
 import com.meronat.latch.enums.LockType;
 import com.meronat.latch.utils.LatchUtils;
+import com.meronat.latch.utils.PasswordService;
 import org.spongepowered.api.block.BlockSnapshot;
 import org.spongepowered.api.entity.living.player.Player;
 import org.spongepowered.api.text.Text;
@@ -37,8 +38,11 @@ import org.spongepowered.api.world.Location;
 import org.spongepowered.api.world.World;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class UnlockLockInteraction implements LockInteraction {
 
@@ -68,51 +72,97 @@ public class UnlockLockInteraction implements LockInteraction {
             return true;
         }
 
-        //Check the password
-        if (Latch.getLockManager().isPasswordCompatibleLock(lock)) {
-            if (!LatchUtils.hashPassword(this.password, lock.getSalt()).equals(lock.getPassword())) {
-                player.sendMessage(Text.of(TextColors.RED, "The password you tried is incorrect."));
-                return false;
-            }
+        if (!Latch.getLockManager().isPasswordCompatibleLock(lock)) {
+            player.sendMessage(Text.of(TextColors.RED, "That is not a password lock."));
+            return false;
+        }
 
-            //If the password is correct we're returning true - but if it's a PASSWORD_ONCE need to add them to allowed members
-            if (lock.getLockType() == LockType.PASSWORD_ONCE || lock.getLockType() == LockType.PASSWORD_ALWAYS) {
-                //Check for other locks
-                final ArrayList<Lock> locks = new ArrayList<>();
-                locks.add(lock);
+        //Stop players from guessing passwords as fast as they can click
+        if (!Latch.getLockManager().getPasswordService().tryAttempt(player.getUniqueId())) {
+            player.sendMessage(Text.of(TextColors.RED, "You are trying passwords too quickly."));
+            return false;
+        }
 
-                final Optional<Location<World>> optionalOtherBlock = LatchUtils.getDoubleBlockLocation(blockState);
-                Optional<Lock> otherBlockLock = Optional.empty();
+        //Check for other locks
+        final Optional<Lock> otherBlockLock = LatchUtils.getDoubleBlockLocation(blockState).flatMap(Latch.getLockManager()::getLock);
 
-                //If the block has another block that needs to be unlocked
-                if (optionalOtherBlock.isPresent()) {
-                    otherBlockLock = Latch.getLockManager().getLock(optionalOtherBlock.get());
-                }
+        //Checking the password is done off the main thread, the access is given back on it
+        final UUID uniqueId = player.getUniqueId();
+        final byte[] salt = lock.getSalt();
+        final String hash = lock.getPassword();
+        final Optional<byte[]> otherSalt = otherBlockLock.map(Lock::getSalt);
+        final Optional<String> otherHash = otherBlockLock.map(Lock::getPassword);
 
-                if (otherBlockLock.isPresent()) {
-                    if (!otherBlockLock.get().getPassword().equalsIgnoreCase(this.password)) {
-                        player.sendMessage(Text.of(TextColors.RED, "The adjacent lock does not have the same password."));
-                    } else {
-                        locks.add(otherBlockLock.get());
-                    }
-                }
+        Latch.getLockManager().getInteractionPipeline().submit(uniqueId, () -> checkPasswords(salt, hash, otherSalt, otherHash),
+            correct -> unlock(uniqueId, lock, hash, otherBlockLock, correct).forEach(player::sendMessage));
 
-                //Modify the attributes of the lock
-                for (Lock thisLock : locks) {
-                    Latch.getLockManager().addLockAccess(thisLock, player.getUniqueId());
-                    lock.updateLastAccessed();
-                }
+        return true;
+    }
+
+    //Whether the password is correct for the lock and for the adjacent one, or empty if it couldn't be checked
+    private Optional<boolean[]> checkPasswords(byte[] salt, String hash, Optional<byte[]> otherSalt, Optional<String> otherHash) {
+        final PasswordService passwordService = Latch.getLockManager().getPasswordService();
+
+        //Check both passwords at once on the password workers
+        final CompletableFuture<Boolean> correct = passwordService.verify(this.password, salt, hash);
+        final CompletableFuture<Boolean> otherCorrect = otherSalt.isPresent() && otherHash.isPresent()
+            ? passwordService.verify(this.password, otherSalt.get(), otherHash.get())
+            : CompletableFuture.completedFuture(false);
+
+        try {
+            return Optional.of(new boolean[] {correct.join(), otherCorrect.join()});
+        } catch (CompletionException e) {
+            return Optional.empty();
+        }
+    }
+
+    private List<Text> unlock(UUID uniqueId, Lock lock, String hash, Optional<Lock> otherBlockLock, Optional<boolean[]> correct) {
+        final List<Text> messages = new ArrayList<>();
+
+        if (!correct.isPresent()) {
+            messages.add(Text.of(TextColors.RED, "Too many passwords are being checked right now, please try again shortly."));
+            return messages;
+        }
+
+        //A password changed while it was being checked is checked against the old one
+        if (!correct.get()[0] || !lock.getPassword().equals(hash)) {
+            messages.add(Text.of(TextColors.RED, "The password you tried is incorrect."));
+            return messages;
+        }
+
+        //If the password is correct they need to be added to allowed members
+        final ArrayList<Lock> locks = new ArrayList<>();
+        locks.add(lock);
 
-                player.sendMessage(Text.of(TextColors.DARK_GREEN, "Unlocking the password lock for future access."));
+        //If the block has another block that needs to be unlocked
+        if (otherBlockLock.isPresent()) {
+            if (!correct.get()[1]) {
+                messages.add(Text.of(TextColors.RED, "The adjacent lock does not have the same password."));
+            } else {
+                locks.add(otherBlockLock.get());
             }
+        }
 
-            return true;
+        //Password always locks only let them through once, and are kept out of storage
+        for (Lock thisLock : locks) {
+            if (thisLock.getLockType() == LockType.PASSWORD_ALWAYS) {
+                if (!Latch.getLockManager().grantPasswordAccess(thisLock, uniqueId)) {
+                    messages.add(Text.of(TextColors.RED, "This lock is still being saved, please try again in a moment."));
+                    return messages;
+                }
+            } else {
+                Latch.getLockManager().addLockAccess(thisLock, uniqueId);
+            }
+            thisLock.updateLastAccessed();
+        }
+
+        if (lock.getLockType() == LockType.PASSWORD_ALWAYS) {
+            messages.add(Text.of(TextColors.DARK_GREEN, "Unlocking the password lock for your next access."));
         } else {
-            player.sendMessage(Text.of(TextColors.RED, "That is not a password lock."));
+            messages.add(Text.of(TextColors.DARK_GREEN, "Unlocking the password lock for future access."));
         }
 
-        //Default state
-        return false;
+        return messages;
     }
 
     @Override
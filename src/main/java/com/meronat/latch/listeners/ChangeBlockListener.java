@@ -53,7 +53,10 @@ import org.spongepowered.api.world.LocatableBlock;
 import org.spongepowered.api.world.Location;
 import org.spongepowered.api.world.World;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public class ChangeBlockListener {
@@ -138,16 +141,12 @@ public class ChangeBlockListener {
                         if (!lockInteraction.get().shouldPersist()) {
                             Latch.getLockManager().removeInteractionData(player.getUniqueId());
                         }
-                    } else if (Latch.getConfig().getNode("auto_lock_on_placement").getBoolean()) {
+                    } else if (Latch.getSettings().autoLockOnPlacement()) {
                         if (!Latch.getLockManager().isLockableBlock(bs.getFinal().getState().getType())) {
                             return;
                         }
 
-                        if (Latch.getLockManager().isPlayerAtLockLimit(player.getUniqueId(), LockType.PRIVATE)) {
-                            player.sendMessage(ChatTypes.ACTION_BAR, Text.of(TextColors.RED, "You are at the lock limit."));
-                            return;
-                        }
-
+                        //The lock limit is checked along with the rest of the storage work of creating the lock
                         if (bs.isValid() && bs.getFinal().getLocation().isPresent() && isSolidBlock(bs.getFinal().getState())) {
                             boolean result = new CreateLockInteraction(player.getUniqueId(), LockType.PRIVATE, "")
                                 .handleInteraction(player, bs.getFinal().getLocation().get(), bs.getFinal());
@@ -176,8 +175,7 @@ public class ChangeBlockListener {
 
             final LockManager lockManager = Latch.getLockManager();
 
-            if (lockManager.getLock(location).isPresent() || (lockManager.getLock(location.getBlockRelative(Direction.UP)).isPresent() && lockManager
-                .isProtectBelowBlocks(location.getBlockRelative(Direction.UP).getBlockType()))) {
+            if (lockManager.getLock(location).isPresent() || lockManager.isSupportBlock(location)) {
                 event.setCancelled(true);
             }
         }
@@ -188,23 +186,26 @@ public class ChangeBlockListener {
         //Track the names of the locks broken - only display message once per lock
         final HashSet<String> locksDeleted = new HashSet<>();
 
+        final LockManager lockManager = Latch.getLockManager();
+        final Map<Location<World>, Lock> locks = lockManager.getLocks(getChangedLocations(event.getTransactions(), true));
+
         //Only allow the owner to break a lock
         for (Transaction<BlockSnapshot> bs : event.getTransactions()) {
             if (bs.isValid() && bs.getOriginal().getLocation().isPresent()) {
-                final Location location = bs.getOriginal().getLocation().get();
-                final LockManager lockManager = Latch.getLockManager();
+                final Location<World> location = bs.getOriginal().getLocation().get();
 
-                final Optional<Lock> optionalLock = lockManager.getLock(location);
+                final Optional<Lock> optionalLock = Optional.ofNullable(locks.get(location));
 
                 //If the block is below a block we need to protect the below blocks of...
                 //Potentially Sponge issue - should be able to detect these blocks
-                final Optional<Lock> aboveLock = lockManager.getLock(location.getBlockRelative(Direction.UP));
+                if (lockManager.isSupportBlock(location)) {
+                    final Optional<Lock> aboveLock = Optional.ofNullable(locks.get(location.getBlockRelative(Direction.UP)));
 
-                if (aboveLock.isPresent() && lockManager.isProtectBelowBlocks(location.getBlockRelative(Direction.UP).getBlockType()) && !aboveLock
-                    .get().isOwnerOrBypassing(player.getUniqueId())) {
-                    player.sendMessage(Text.of(TextColors.RED, "You cannot destroy a block which is depended on by a lock that's not yours."));
-                    bs.setValid(false);
-                    continue;
+                    if (aboveLock.isPresent() && !aboveLock.get().isOwnerOrBypassing(player.getUniqueId())) {
+                        player.sendMessage(Text.of(TextColors.RED, "You cannot destroy a block which is depended on by a lock that's not yours."));
+                        bs.setValid(false);
+                        continue;
+                    }
                 }
 
                 if (optionalLock.isPresent()) {
@@ -231,26 +232,26 @@ public class ChangeBlockListener {
 
     @Listener
     public void onBlockBrokenByExplosion(final ExplosionEvent.Post event) {
-        if (Latch.getConfig().getNode("protect_from_explosives").getBoolean(true)) {
+        if (Latch.getSettings().protectFromExplosives()) {
             //If we're supposed to protect from explosions, invalidate the transaction
             final LockManager lockManager = Latch.getLockManager();
+            final Map<Location<World>, Lock> locks = lockManager.getLocks(getChangedLocations(event.getTransactions(), false));
+
             for (Transaction<BlockSnapshot> transaction : event.getTransactions()) {
                 if (transaction.isValid() && transaction.getOriginal().getLocation().isPresent()) {
                     final Location<World> location = transaction.getOriginal().getLocation().get();
-                    if (lockManager.getLock(location).isPresent()) {
-                        transaction.setValid(false);
-                    }
-                    final Optional<Lock> aboveLock = lockManager.getLock(location.getBlockRelative(Direction.UP));
-                    if (aboveLock.isPresent() && lockManager.isProtectBelowBlocks(location.getBlockRelative(Direction.UP).getBlockType())) {
+                    if (locks.containsKey(location) || lockManager.isSupportBlock(location)) {
                         transaction.setValid(false);
                     }
                 }
             }
         } else {
             //Otherwise we should delete the locks destroyed by the explosion
+            final Map<Location<World>, Lock> locks = Latch.getLockManager().getLocks(getChangedLocations(event.getTransactions(), false));
+
             for (Transaction<BlockSnapshot> bs : event.getTransactions()) {
                 if (bs.isValid() && bs.getOriginal().getLocation().isPresent()) {
-                    if (Latch.getLockManager().getLock(bs.getOriginal().getLocation().get()).isPresent()) {
+                    if (locks.containsKey(bs.getOriginal().getLocation().get())) {
                         Latch.getLockManager().deleteLock(bs.getOriginal().getLocation().get(), false);
                     }
                 }
@@ -258,6 +259,22 @@ public class ChangeBlockListener {
         }
     }
 
+    //The blocks above are included when a lock depending on a changed block has to be checked too
+    private static List<Location<World>> getChangedLocations(List<Transaction<BlockSnapshot>> transactions, boolean includeAbove) {
+        final List<Location<World>> locations = new ArrayList<>();
+
+        for (Transaction<BlockSnapshot> transaction : transactions) {
+            if (transaction.isValid() && transaction.getOriginal().getLocation().isPresent()) {
+                locations.add(transaction.getOriginal().getLocation().get());
+                if (includeAbove) {
+                    locations.add(transaction.getOriginal().getLocation().get().getBlockRelative(Direction.UP));
+                }
+            }
+        }
+
+        return locations;
+    }
+
     //Sponge issue? - Interacting with chests near water triggers the block place event for the surrounding water
     //So let's limit our block placing to just solid blocks
     private boolean isSolidBlock(BlockState bs) {
@@ -50,6 +50,7 @@ import org.spongepowered.api.event.item.inventory.InteractInventoryEvent;
 import org.spongepowered.api.event.network.ClientConnectionEvent;
 import org.spongepowered.api.item.ItemTypes;
 import org.spongepowered.api.item.inventory.BlockCarrier;
+import org.spongepowered.api.item.inventory.Inventory;
 import org.spongepowered.api.item.inventory.transaction.SlotTransaction;
 import org.spongepowered.api.item.inventory.type.CarriedInventory;
 import org.spongepowered.api.text.Text;
@@ -58,7 +59,9 @@ import org.spongepowered.api.util.Direction;
 import org.spongepowered.api.world.Location;
 import org.spongepowered.api.world.World;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
@@ -69,6 +72,35 @@ public class InteractBlockListener {
     private HashSet<UUID> stopThem = new HashSet<>();
     private Set<Location<World>> noChange = new HashSet<>();
 
+    //The lock (if any) of the block inventory each player has open, looked up when it was opened and again once the index changes
+    private Map<UUID, InventorySession> inventorySessions = new HashMap<>();
+
+    @Listener
+    public void onOpenInventory(final InteractInventoryEvent.Open event, @Root Player player) {
+        final Optional<BlockCarrier> blockCarrier = getBlockCarrier(event.getTargetInventory());
+
+        if (blockCarrier.isPresent()) {
+            getSessionLock(player.getUniqueId(), blockCarrier.get().getLocation());
+        } else {
+            this.inventorySessions.remove(player.getUniqueId());
+        }
+    }
+
+    //Locks can be created, deleted or reloaded while the inventory is open, which all change the index. Type and access changes are
+    //made to the lock itself, so the lock looked up already sees them
+    private Optional<Lock> getSessionLock(UUID player, Location<World> location) {
+        final InventorySession session = this.inventorySessions.get(player);
+        final long indexVersion = Latch.getLockManager().getIndexVersion();
+
+        if (session != null && session.location.equals(location) && session.indexVersion == indexVersion) {
+            return session.lock;
+        }
+
+        final Optional<Lock> lock = Latch.getLockManager().getLock(location);
+        this.inventorySessions.put(player, new InventorySession(location, lock, indexVersion));
+        return lock;
+    }
+
     @Listener
     public void onClickInventory(final ClickInventoryEvent event, @First Player player) {
         //Make sure we have a transaction to validate
@@ -79,21 +111,17 @@ public class InteractBlockListener {
         //Get the first transaction of this event
         final SlotTransaction slotTransaction = event.getTransactions().get(0);
 
-        if (event.getTargetInventory() instanceof CarriedInventory<?>) {
-            final CarriedInventory<?> carriedInventory = (CarriedInventory<?>) event.getTargetInventory();
-            final Optional<?> carrier = carriedInventory.getCarrier();
+        final Optional<BlockCarrier> blockCarrier = getBlockCarrier(event.getTargetInventory());
 
-            if (carrier.isPresent() && carrier.get() instanceof BlockCarrier) {
-                final BlockCarrier blockCarrier = (BlockCarrier) carrier.get();
-                //If the final item is NONE (or amount is less) person is trying to withdraw (so we care about it)
-                if (slotTransaction.getFinal().getType() == ItemTypes.NONE || slotTransaction.getFinal().getQuantity() < slotTransaction.getOriginal().getQuantity()) {
-                    //Then check to see if there's a lock
-                    final Optional<Lock> lock = Latch.getLockManager().getLock(blockCarrier.getLocation());
-
-                    //If there's a donation lock the player CANNOT access
-                    if (lock.isPresent() && lock.get().getLockType() == LockType.DONATION && !lock.get().canAccess(player.getUniqueId())) {
-                        event.setCancelled(true);
-                    }
+        if (blockCarrier.isPresent()) {
+            //If the final item is NONE (or amount is less) person is trying to withdraw (so we care about it)
+            if (slotTransaction.getFinal().getType() == ItemTypes.NONE || slotTransaction.getFinal().getQuantity() < slotTransaction.getOriginal().getQuantity()) {
+                //Then check to see if there's a lock, which was looked up when the inventory was opened
+                final Optional<Lock> lock = getSessionLock(player.getUniqueId(), blockCarrier.get().getLocation());
+
+                //If there's a donation lock the player CANNOT access
+                if (lock.isPresent() && lock.get().getLockType() == LockType.DONATION && !lock.get().canAccess(player.getUniqueId())) {
+                    event.setCancelled(true);
                 }
             }
         }
@@ -118,6 +146,18 @@ public class InteractBlockListener {
     @Listener
     public void onCloseInventory(final InteractInventoryEvent.Close event, @Root Player player) {
         this.stopThem.remove(player.getUniqueId());
+        this.inventorySessions.remove(player.getUniqueId());
+    }
+
+    private static Optional<BlockCarrier> getBlockCarrier(Inventory inventory) {
+        if (inventory instanceof CarriedInventory<?>) {
+            final Optional<?> carrier = ((CarriedInventory<?>) inventory).getCarrier();
+
+            if (carrier.isPresent() && carrier.get() instanceof BlockCarrier) {
+                return Optional.of((BlockCarrier) carrier.get());
+            }
+        }
+        return Optional.empty();
     }
 
     @Listener
@@ -135,6 +175,9 @@ public class InteractBlockListener {
     @Listener
     public void onLeave(final ClientConnectionEvent.Disconnect event, @Root Player player) {
         this.stopThem.remove(player.getUniqueId());
+        this.inventorySessions.remove(player.getUniqueId());
+        Latch.getLockManager().getPasswordService().forgetPlayer(player.getUniqueId());
+        Latch.getLockManager().clearPasswordAccess(player.getUniqueId());
     }
 
     @Listener
@@ -177,7 +220,11 @@ public class InteractBlockListener {
         } else {
             //Otherwise we only care if it's a lock
             Latch.getLockManager().getLock(location).ifPresent(lock -> {
-                if (lock.getLockType() != LockType.DONATION && !lock.canAccess(player.getUniqueId())) {
+                //A correct password for a password always lock is used up by opening or using the block, a left click leaves it
+                if (lock.getLockType() != LockType.DONATION && !lock.canAccess(player.getUniqueId())
+                        && !(lock.getLockType() == LockType.PASSWORD_ALWAYS && (event instanceof InteractBlockEvent.Secondary
+                            ? Latch.getLockManager().consumePasswordAccess(lock, player.getUniqueId())
+                            : Latch.getLockManager().hasPasswordAccess(lock, player.getUniqueId())))) {
                     player.sendMessage(Text.of(TextColors.RED, "You cannot access this lock."));
                     event.setCancelled(true);
                 } else {
@@ -185,7 +232,7 @@ public class InteractBlockListener {
                     if ((blockType.equals(BlockTypes.FURNACE) || blockType.equals(BlockTypes.LIT_FURNACE))
                             && lock.getLockType() == LockType.DONATION && !lock.canAccess(player.getUniqueId())) {
                         this.stopThem.add(player.getUniqueId());
-                    } else if (Latch.getConfiguration().allowOpeningLockedIron() && (blockType.equals(BlockTypes.IRON_DOOR) || blockType.equals(BlockTypes.IRON_TRAPDOOR))) {
+                    } else if (Latch.getLockManager().isIronOpenable(blockType)) {
                         if (!this.noChange.remove(location)) { // Hack to get iron door opening working for now
                             this.noChange.add(location);
                             final Location<World> newLocation;
@@ -205,15 +252,24 @@ public class InteractBlockListener {
                         }
                     }
 
-                    // Remove temporary access for password always locks.
-                    if (lock.getLockType() == LockType.PASSWORD_ALWAYS) {
-                        Latch.getLockManager().removeLockAccess(lock, player.getUniqueId());
-                    }
-
                     lock.updateLastAccessed();
                 }
             });
         }
     }
 
+    private static final class InventorySession {
+
+        private final Location<World> location;
+        private final Optional<Lock> lock;
+        private final long indexVersion;
+
+        private InventorySession(Location<World> location, Optional<Lock> lock, long indexVersion) {
+            this.location = location;
+            this.lock = lock;
+            this.indexVersion = indexVersion;
+        }
+
+    }
+
 }
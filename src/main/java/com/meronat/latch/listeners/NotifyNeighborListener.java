@@ -33,6 +33,8 @@ import org.spongepowered.api.event.Listener;
 import org.spongepowered.api.event.block.NotifyNeighborBlockEvent;
 import org.spongepowered.api.event.filter.cause.First;
 import org.spongepowered.api.world.LocatableBlock;
+import org.spongepowered.api.world.Location;
+import org.spongepowered.api.world.World;
 
 import java.util.Optional;
 
@@ -50,26 +52,28 @@ public class NotifyNeighborListener {
         -Breaking the block below a lock dependent upon it
         -Redstone affecting the lock
     */
-    //TODO Could this be improved? Is this querying too often? +Reevaluate once Sponge modifies redstone data
+    //TODO Reevaluate once Sponge modifies redstone data
     @Listener
     public void notifyNeighbors(final NotifyNeighborBlockEvent event, @First LocatableBlock cause) {
         final LockManager lockManager = Latch.getLockManager();
+        final Optional<Player> optionalPlayer = event.getCause().first(Player.class);
+
         event.getNeighbors().entrySet().removeIf(neighbor -> {
-            final Optional<Lock> optionalLock = lockManager.getLock(cause.getLocation().getBlockRelative(neighbor.getKey()));
+            final Location<World> location = cause.getLocation().getBlockRelative(neighbor.getKey());
 
-            if (optionalLock.isPresent()) {
-                final Lock lock = optionalLock.get();
+            //Almost every neighbor isn't protected, which only takes a bit test to tell
+            if (!lockManager.isRedstoneProtected(location)) {
+                return false;
+            }
 
-                if (!lock.getProtectFromRedstone()) {
-                    return false;
-                }
+            if (!optionalPlayer.isPresent()) {
+                return true;
+            }
 
-                final Optional<Player> optionalPlayer = event.getCause().first(Player.class);
+            final Optional<Lock> optionalLock = lockManager.getLock(location);
 
-                //noinspection OptionalIsPresent
-                return !optionalPlayer.isPresent() || !lock.canAccess(optionalPlayer.get().getUniqueId());
-            }
-            return false;
+            //noinspection OptionalIsPresent
+            return optionalLock.isPresent() && !optionalLock.get().canAccess(optionalPlayer.get().getUniqueId());
         });
     }
 
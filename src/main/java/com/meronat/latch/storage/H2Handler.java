@@ -0,0 +1,143 @@
+/*
+ * This file is part of Latch, licensed under the MIT License.
+ *
+ * Copyright (c) 2016-2018 IchorPowered <https://github.com/IchorPowered>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.meronat.latch.storage;
+
+import com.google.common.collect.ImmutableList;
+import com.meronat.latch.Latch;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * The default storage, an embedded H2 database in the configuration directory.
+ */
+public class H2Handler extends SqlHandler {
+
+    @Override
+    protected String getDefaultConnectionUrl() {
+        return "jdbc:h2:" + Latch.getConfigPatch().getParent().toAbsolutePath().toString() + File.separator + "latch";
+    }
+
+    @Override
+    protected List<String> getCreateTableStatements() {
+        return ImmutableList.of(
+            "CREATE TABLE IF NOT EXISTS LOCK (" +
+                "ID bigint AUTO_INCREMENT, " +
+                "OWNER_UUID char(36) NOT NULL, " +
+                "LOCK_NAME varchar(25) NOT NULL, " +
+                "LOCK_TYPE varchar(15) NOT NULL, " +
+                "LOCKED_OBJECT varchar(50) NOT NULL, " +
+                "PASSWORD varchar(256) NOT NULL, " +
+                "SALT varchar(64) NOT NULL, " +
+                "REDSTONE_PROTECT BOOLEAN NOT NULL, " +
+                "ACCESSED DATETIME NOT NULL," +
+                "PRIMARY KEY(ID), CONSTRAINT UQ_OWNER_NAME UNIQUE (OWNER_UUID, LOCK_NAME) )",
+
+            "CREATE TABLE IF NOT EXISTS LOCK_LOCATIONS (" +
+                "LOCK_ID bigint, " +
+                "WORLD_UUID char(36) NOT NULL, " +
+                "X int NOT NULL, " +
+                "Y int NOT NULL, " +
+                "Z int NOT NULL, " +
+                "FOREIGN KEY (LOCK_ID) REFERENCES LOCK(ID), " +
+                "PRIMARY KEY (WORLD_UUID, X, Y, Z) )",
+
+            "CREATE TABLE IF NOT EXISTS LOCK_PLAYERS (" +
+                "LOCK_ID bigint, " +
+                "PLAYER_UUID char(36) NOT NULL, " +
+                "FOREIGN KEY (LOCK_ID) REFERENCES LOCK(ID) )");
+    }
+
+    @Override
+    protected List<String> getCreateCompactTableStatements() {
+        return ImmutableList.of(
+            "CREATE TABLE IF NOT EXISTS WORLDS (" +
+                "ID int AUTO_INCREMENT, " +
+                "WORLD_UUID binary(16) NOT NULL, " +
+                "PRIMARY KEY (ID), UNIQUE (WORLD_UUID) )",
+
+            "CREATE TABLE LOCK_NEW (" +
+                "ID bigint AUTO_INCREMENT, " +
+                "OWNER_UUID binary(16) NOT NULL, " +
+                "LOCK_NAME varchar(25) NOT NULL, " +
+                "LOCK_TYPE tinyint NOT NULL, " +
+                "LOCKED_OBJECT varchar(50) NOT NULL, " +
+                "PASSWORD varchar(256) NOT NULL, " +
+                "SALT varbinary(64) NOT NULL, " +
+                "REDSTONE_PROTECT BOOLEAN NOT NULL, " +
+                "ACCESSED DATETIME NOT NULL, " +
+                "PRIMARY KEY (ID), UNIQUE (OWNER_UUID, LOCK_NAME) )",
+
+            "CREATE TABLE LOCK_LOCATIONS_NEW (" +
+                "LOCK_ID bigint NOT NULL, " +
+                "WORLD_ID int NOT NULL, " +
+                "PACKED_POSITION bigint NOT NULL, " +
+                "FOREIGN KEY (LOCK_ID) REFERENCES LOCK_NEW(ID), " +
+                "FOREIGN KEY (WORLD_ID) REFERENCES WORLDS(ID), " +
+                "PRIMARY KEY (WORLD_ID, PACKED_POSITION) )",
+
+            "CREATE TABLE LOCK_PLAYERS_NEW (" +
+                "LOCK_ID bigint NOT NULL, " +
+                "PLAYER_UUID binary(16) NOT NULL, " +
+                "FOREIGN KEY (LOCK_ID) REFERENCES LOCK_NEW(ID), " +
+                "PRIMARY KEY (LOCK_ID, PLAYER_UUID) )");
+    }
+
+    @Override
+    protected List<String> getRestartLockIdStatements(long nextId) {
+        return ImmutableList.of("ALTER TABLE LOCK_NEW ALTER COLUMN ID RESTART WITH " + nextId);
+    }
+
+    @Override
+    protected List<String> getConstraintStatements() {
+        //Older H2 databases could hold duplicate accessors, which have to go before LOCK_PLAYERS gets its key
+        return ImmutableList.of(
+            "DELETE FROM LOCK_PLAYERS WHERE LOCK_ID IS NULL OR _ROWID_ NOT IN (SELECT MIN(_ROWID_) FROM LOCK_PLAYERS GROUP BY LOCK_ID, PLAYER_UUID)",
+            "DELETE FROM LOCK_LOCATIONS WHERE LOCK_ID IS NULL",
+            "ALTER TABLE LOCK_PLAYERS ALTER COLUMN LOCK_ID SET NOT NULL",
+            "ALTER TABLE LOCK_LOCATIONS ALTER COLUMN LOCK_ID SET NOT NULL",
+            "ALTER TABLE LOCK_PLAYERS ADD PRIMARY KEY (LOCK_ID, PLAYER_UUID)");
+    }
+
+    @Override
+    protected List<String> getIndexStatements() {
+        //H2 already indexes foreign key columns, so LOCK_LOCATIONS.LOCK_ID is covered
+        return ImmutableList.of(
+            "CREATE INDEX IDX_LOCK_ACCESSED ON LOCK (ACCESSED)",
+            "CREATE INDEX IDX_LOCK_NAME ON LOCK (LOCK_NAME)");
+    }
+
+    @Override
+    protected String getUpsertLocationStatement() {
+        return "MERGE INTO LOCK_LOCATIONS(LOCK_ID, WORLD_ID, PACKED_POSITION) KEY(WORLD_ID, PACKED_POSITION) VALUES (?, ?, ?)";
+    }
+
+    @Override
+    protected String getUpsertAccessorStatement() {
+        return "MERGE INTO LOCK_PLAYERS(LOCK_ID, PLAYER_UUID) KEY(LOCK_ID, PLAYER_UUID) VALUES (?, ?)";
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * This file is part of Latch, licensed under the MIT License.
+ *
+ * Copyright (c) 2016-2018 IchorPowered <https://github.com/IchorPowered>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.meronat.latch.storage;
+
+import static com.meronat.latch.Latch.getLogger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * How many locked locations each 16x16x16 section of every world has. Most blocks asked about are in sections without any, which this
+ * answers without going to the lock index or the storage. Sections are the packed position without its lowest four bits of each axis.
+ */
+public final class LockOccupancy {
+
+    private static final int MAGIC = 0x4C4F4343;
+    private static final int FORMAT_VERSION = 1;
+
+    private final Map<UUID, Map<Long, Integer>> sections = new ConcurrentHashMap<>();
+
+    private static long getSection(long position) {
+        return position >>> 12;
+    }
+
+    public boolean isOccupied(UUID world, long position) {
+        final Map<Long, Integer> worldSections = this.sections.get(world);
+        return worldSections != null && worldSections.containsKey(getSection(position));
+    }
+
+    public void add(UUID world, long position) {
+        this.sections.computeIfAbsent(world, w -> new ConcurrentHashMap<>()).merge(getSection(position), 1, Integer::sum);
+    }
+
+    public void remove(UUID world, long position) {
+        final Map<Long, Integer> worldSections = this.sections.get(world);
+        if (worldSections != null) {
+            worldSections.computeIfPresent(getSection(position), (section, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    /**
+     * Write the occupancy, tagged with the change counter of the storage it matches.
+     *
+     * @param file The file to write to
+     * @param changeCounter The change counter of the storage
+     */
+    public void write(Path file, long changeCounter) {
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(changeCounter);
+                out.writeInt(this.sections.size());
+
+                for (Map.Entry<UUID, Map<Long, Integer>> world : this.sections.entrySet()) {
+                    //Copied so the count written matches the entries even if a section changes meanwhile
+                    final Map<Long, Integer> worldSections = new HashMap<>(world.getValue());
+
+                    out.writeLong(world.getKey().getMostSignificantBits());
+                    out.writeLong(world.getKey().getLeastSignificantBits());
+                    out.writeInt(worldSections.size());
+
+                    for (Map.Entry<Long, Integer> section : worldSections.entrySet()) {
+                        out.writeLong(section.getKey());
+                        out.writeInt(section.getValue());
+                    }
+                }
+            }
+
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            getLogger().error("Error writing lock occupancy " + file + ":");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Read the occupancy written for a change counter of the storage.
+     *
+     * @param file The file to read from
+     * @param changeCounter The current change counter of the storage
+     * @return The occupancy, or empty if there is none or it doesn't match the storage anymore
+     */
+    public static Optional<LockOccupancy> read(Path file, long changeCounter) {
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || in.readLong() != changeCounter) {
+                return Optional.empty();
+            }
+
+            final LockOccupancy occupancy = new LockOccupancy();
+
+            for (int worlds = in.readInt(); worlds > 0; worlds--) {
+                final UUID world = new UUID(in.readLong(), in.readLong());
+                final Map<Long, Integer> worldSections = new ConcurrentHashMap<>();
+
+                for (int sections = in.readInt(); sections > 0; sections--) {
+                    worldSections.put(in.readLong(), in.readInt());
+                }
+                occupancy.sections.put(world, worldSections);
+            }
+
+            return Optional.of(occupancy);
+        } catch (IOException e) {
+            getLogger().error("Error reading lock occupancy " + file + ", it will be rebuilt from storage instead:");
+            e.printStackTrace();
+        }
+        return Optional.empty();
+    }
+
+}
@@ -0,0 +1,332 @@
+/*
+ * This file is part of Latch, licensed under the MIT License.
+ *
+ * Copyright (c) 2016-2018 IchorPowered <https://github.com/IchorPowered>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.meronat.latch.storage;
+
+import static com.meronat.latch.Latch.getLogger;
+
+import com.meronat.latch.entities.Lock;
+import com.meronat.latch.enums.LockType;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.world.World;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A binary copy of every stored lock as of a change counter of the storage, so the lock index can be brought up without reading the
+ * whole database. The file is a header followed by tagged records: worlds, then locks, then their locations, then their accessors. Players
+ * get a record the first time they show up, after which the accessors of a lock are written as a sorted array of their ids.
+ */
+public final class LockSnapshot {
+
+    private static final int MAGIC = 0x4C544348;
+    private static final int FORMAT_VERSION = 2;
+
+    private static final byte END = 0;
+    private static final byte WORLD = 1;
+    private static final byte LOCK = 2;
+    private static final byte LOCATION = 3;
+    private static final byte PLAYER = 4;
+    private static final byte ACCESSORS = 5;
+
+    private final long changeCounter;
+    private final Map<Long, Lock> locks;
+    private final Map<UUID, Map<Long, Lock>> locationIndex;
+
+    private LockSnapshot(long changeCounter, Map<Long, Lock> locks, Map<UUID, Map<Long, Lock>> locationIndex) {
+        this.changeCounter = changeCounter;
+        this.locks = locks;
+        this.locationIndex = locationIndex;
+    }
+
+    /**
+     * Get the change counter of the storage this snapshot matches.
+     *
+     * @return The change counter
+     */
+    public long getChangeCounter() {
+        return this.changeCounter;
+    }
+
+    /**
+     * Get the locks of the snapshot by their storage ID.
+     *
+     * @return The locks
+     */
+    public Map<Long, Lock> getLocks() {
+        return this.locks;
+    }
+
+    /**
+     * Get the locks of a loaded world by packed position.
+     *
+     * @param world The unique id of the world
+     * @return The locks of the world, empty if the world has none
+     */
+    public Map<Long, Lock> getWorldIndex(UUID world) {
+        return this.locationIndex.getOrDefault(world, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Read only the change counter a snapshot was written at.
+     *
+     * @param file The snapshot file
+     * @return The change counter, or empty if there is no snapshot or it can't be read
+     */
+    public static Optional<Long> readChangeCounter(Path file) {
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return Optional.empty();
+            }
+            return Optional.of(in.readLong());
+        } catch (IOException e) {
+            getLogger().error("Error reading lock snapshot " + file + ":");
+            e.printStackTrace();
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Read a snapshot, keeping only the locations of worlds which are currently loaded.
+     *
+     * @param file The snapshot file
+     * @return The snapshot, or empty if there is none or it can't be read
+     */
+    public static Optional<LockSnapshot> read(Path file) {
+        if (!Files.exists(file)) {
+            return Optional.empty();
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                getLogger().warn("Ignoring lock snapshot " + file + " as it is not in a format this version understands.");
+                return Optional.empty();
+            }
+
+            final long changeCounter = buffer.getLong();
+            final Map<Integer, Optional<World>> worlds = new HashMap<>();
+            final Map<Integer, UUID> players = new HashMap<>();
+            final Map<Long, Lock> locks = new HashMap<>();
+            final Map<UUID, Map<Long, Lock>> locationIndex = new HashMap<>();
+
+            for (byte record = buffer.get(); record != END; record = buffer.get()) {
+                switch (record) {
+                    case WORLD:
+                        final int worldId = buffer.getInt();
+                        final Optional<World> world = Sponge.getServer().getWorld(readUUID(buffer));
+                        worlds.put(worldId, world);
+                        world.ifPresent(w -> locationIndex.put(w.getUniqueId(), new ConcurrentHashMap<>()));
+                        break;
+                    case LOCK:
+                        final Lock lock = Lock.builder()
+                            .id(buffer.getLong())
+                            .owner(readUUID(buffer))
+                            .type(LockType.fromId(buffer.get()))
+                            .protectFromRedstone(buffer.get() != 0)
+                            .lastAccessed(LocalDateTime.ofInstant(Instant.ofEpochMilli(buffer.getLong()), ZoneId.systemDefault()))
+                            .name(readString(buffer))
+                            .objectName(readString(buffer))
+                            .password(readString(buffer))
+                            .salt(readBytes(buffer))
+                            .build();
+                        locks.put(lock.getId(), lock);
+                        break;
+                    case LOCATION:
+                        final Lock locationLock = locks.get(buffer.getLong());
+                        final Optional<World> locationWorld = worlds.getOrDefault(buffer.getInt(), Optional.empty());
+                        final long position = buffer.getLong();
+
+                        if (locationLock != null && locationWorld.isPresent()) {
+                            locationLock.addPosition(locationWorld.get().getUniqueId(), position);
+                            locationIndex.get(locationWorld.get().getUniqueId()).put(position, locationLock);
+                        }
+                        break;
+                    case PLAYER:
+                        players.put(buffer.getInt(), readUUID(buffer));
+                        break;
+                    case ACCESSORS:
+                        final Lock accessorLock = locks.get(buffer.getLong());
+                        final int accessorCount = buffer.getInt();
+
+                        for (int i = 0; i < accessorCount; i++) {
+                            final UUID accessor = players.get(buffer.getInt());
+                            if (accessor == null) {
+                                throw new IOException("Accessor without a player record");
+                            }
+                            if (accessorLock != null) {
+                                accessorLock.addAccess(accessor);
+                            }
+                        }
+                        break;
+                    default:
+                        throw new IOException("Unknown record type " + record);
+                }
+            }
+
+            return Optional.of(new LockSnapshot(changeCounter, locks, locationIndex));
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            getLogger().error("Error reading lock snapshot " + file + ", locks will be loaded from storage instead:");
+            e.printStackTrace();
+        }
+        return Optional.empty();
+    }
+
+    private static UUID readUUID(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        return new String(readBytes(buffer), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a snapshot record by record, so it never has to be held in memory as a whole.
+     */
+    static final class Writer implements Closeable {
+
+        private final DataOutputStream out;
+
+        //The ids players were given in this snapshot
+        private final Map<UUID, Integer> players = new HashMap<>();
+
+        Writer(Path file, long changeCounter) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+            this.out.writeInt(MAGIC);
+            this.out.writeInt(FORMAT_VERSION);
+            this.out.writeLong(changeCounter);
+        }
+
+        void writeWorld(int worldId, UUID world) throws IOException {
+            this.out.writeByte(WORLD);
+            this.out.writeInt(worldId);
+            writeUUID(world);
+        }
+
+        void writeLock(long id, UUID owner, LockType type, boolean protectFromRedstone, LocalDateTime lastAccessed, String name, String objectName,
+            String password, byte[] salt) throws IOException {
+            this.out.writeByte(LOCK);
+            this.out.writeLong(id);
+            writeUUID(owner);
+            this.out.writeByte(type.getId());
+            this.out.writeBoolean(protectFromRedstone);
+            this.out.writeLong(lastAccessed.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+            writeString(name);
+            writeString(objectName);
+            writeString(password);
+            writeBytes(salt);
+        }
+
+        void writeLocation(long lockId, int worldId, long position) throws IOException {
+            this.out.writeByte(LOCATION);
+            this.out.writeLong(lockId);
+            this.out.writeInt(worldId);
+            this.out.writeLong(position);
+        }
+
+        void writeAccessors(long lockId, Collection<UUID> accessors) throws IOException {
+            final int[] ids = new int[accessors.size()];
+            int i = 0;
+
+            for (UUID accessor : accessors) {
+                Integer id = this.players.get(accessor);
+                if (id == null) {
+                    id = this.players.size();
+                    this.players.put(accessor, id);
+
+                    this.out.writeByte(PLAYER);
+                    this.out.writeInt(id);
+                    writeUUID(accessor);
+                }
+                ids[i++] = id;
+            }
+
+            Arrays.sort(ids);
+
+            this.out.writeByte(ACCESSORS);
+            this.out.writeLong(lockId);
+            this.out.writeInt(ids.length);
+            for (int id : ids) {
+                this.out.writeInt(id);
+            }
+        }
+
+        private void writeUUID(UUID uuid) throws IOException {
+            this.out.writeLong(uuid.getMostSignificantBits());
+            this.out.writeLong(uuid.getLeastSignificantBits());
+        }
+
+        private void writeBytes(byte[] bytes) throws IOException {
+            this.out.writeShort(bytes.length);
+            this.out.write(bytes);
+        }
+
+        private void writeString(String string) throws IOException {
+            writeBytes(string.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.out.writeByte(END);
+            this.out.close();
+        }
+
+    }
+
+}
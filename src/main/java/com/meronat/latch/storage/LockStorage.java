@@ -0,0 +1,222 @@
+/*
+ * This file is part of Latch, licensed under the MIT License.
+ *
+ * Copyright (c) 2016-2018 IchorPowered <https://github.com/IchorPowered>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.meronat.latch.storage;
+
+import com.meronat.latch.entities.Lock;
+import com.meronat.latch.enums.LockType;
+import com.meronat.latch.utils.SectionBitmap;
+import org.spongepowered.api.world.Location;
+import org.spongepowered.api.world.World;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Persistent storage of locks. Everything outside of the storage package should only talk to locks through this interface so the backend can
+ * be picked in the configuration.
+ */
+public interface LockStorage {
+
+    /**
+     * Create the tables (or equivalent) used by this storage if they don't exist yet.
+     */
+    void createTables();
+
+    Optional<Lock> getLockByLocation(Location location);
+
+    /**
+     * Get the locks at any of the given locations at once.
+     *
+     * @param locations The locations to look up
+     * @return Every lock with at least one of the locations
+     */
+    List<Lock> getLocksByLocations(Collection<Location<World>> locations);
+
+    List<Lock> getLocksByOwner(UUID uniqueId);
+
+    List<Lock> getLocksInWorld(UUID world);
+
+    /**
+     * Get every lock with a location in a chunk.
+     *
+     * @param world The unique id of the world
+     * @param chunkX The x coordinate of the chunk
+     * @param chunkZ The z coordinate of the chunk
+     * @return The locks in the chunk
+     */
+    List<Lock> getLocksInChunk(UUID world, int chunkX, int chunkZ);
+
+    void createLock(Lock lock, Set<Location<World>> locations, Set<UUID> ableToAccess);
+
+    /**
+     * Create many locks with their locations and accessors at once, as a single transaction. Each lock gets the ID it was stored under.
+     *
+     * @param locks The locks to create
+     */
+    void createLocks(Collection<Lock> locks);
+
+    /**
+     * Delete a lock along with all of its locations and accessors.
+     *
+     * @param lock The lock
+     */
+    void deleteLock(Lock lock);
+
+    void removeLockLocation(Lock lock, Location<World> location);
+
+    /**
+     * Delete every lock owned by a player.
+     *
+     * @param player The owner of the locks
+     * @return The IDs of the locks deleted
+     */
+    Set<Long> deleteLocksForPlayer(UUID player);
+
+    /**
+     * Delete every lock which hasn't been accessed in the given amount of days.
+     *
+     * @param days The amount of days
+     * @return The IDs of the locks deleted
+     */
+    Set<Long> clearLocksOlderThan(int days);
+
+    void addLockLocation(Lock lock, Location<World> location);
+
+    void addLockAccess(Lock lock, UUID player);
+
+    void removeLockAccess(Lock lock, UUID player);
+
+    void removeAllLockAccess(Lock lock);
+
+    /**
+     * Update the owner, name, type, password, redstone protection and last accessed time of a lock.
+     *
+     * @param originalOwner The owner of the lock before any of the changes
+     * @param originalName The name of the lock before any of the changes
+     * @param lock The changed lock
+     */
+    void updateLockAttributes(UUID originalOwner, String originalName, Lock lock);
+
+    boolean isUniqueName(UUID player, String lockName);
+
+    String getRandomLockName(UUID owner, String lockedObjectName);
+
+    /**
+     * Check whether a player owns as many locks as they may have.
+     *
+     * @param player The unique id of the player
+     * @param type The type of lock they want another of
+     * @param typeLimit How many locks of the type they may have, -1 if there is no limit
+     * @param totalLimit How many locks they may have in total, -1 if there is no limit
+     * @return Whether either limit has been reached
+     */
+    boolean isPlayerAtLockLimit(UUID player, LockType type, int typeLimit, int totalLimit);
+
+    /**
+     * Get the amount of locks of each type a player owns.
+     *
+     * @param player The player
+     * @return The amount of locks keyed by the lowercase lock type
+     */
+    Map<String, Integer> getLimits(UUID player);
+
+    /**
+     * Set the last accessed time of locks.
+     *
+     * @param accessTimes Epoch seconds the locks were last accessed, by lock ID
+     */
+    void updateAccessTimes(Map<Long, Long> accessTimes);
+
+    /**
+     * Count the locked locations of every section from what is stored.
+     *
+     * @return The occupancy of every world, or empty if it couldn't be read
+     */
+    Optional<LockOccupancy> getOccupancy();
+
+    /**
+     * Mark every stored location of a lock protected from redstone.
+     *
+     * @return The protected locations, or empty if they couldn't be read
+     */
+    Optional<SectionBitmap> getRedstoneProtectedLocations();
+
+    /**
+     * Mark every block directly below a location of a lock on one of the given objects, which the lock depends on to stay intact.
+     *
+     * @param lockedObjects The names of the objects which depend on the block below them
+     * @return The supporting blocks, or empty if they couldn't be read
+     */
+    Optional<SectionBitmap> getSupportBlocks(Collection<String> lockedObjects);
+
+    /**
+     * Get the change counter of the storage, which goes up with every write.
+     *
+     * @return The change counter, or -1 if it couldn't be read
+     */
+    long getChangeCounter();
+
+    /**
+     * Get the locks which were created or changed after the storage was at the given change counter.
+     *
+     * @param changeCounter The change counter
+     * @return The changed locks
+     */
+    List<Lock> getLocksChangedSince(long changeCounter);
+
+    /**
+     * Get the IDs of the locks which were deleted after the storage was at the given change counter.
+     *
+     * @param changeCounter The change counter
+     * @return The IDs of the deleted locks
+     */
+    Set<Long> getLocksDeletedSince(long changeCounter);
+
+    /**
+     * Write a {@link LockSnapshot} of every stored lock.
+     *
+     * @param file The file to write the snapshot to
+     */
+    void writeSnapshot(Path file);
+
+    /**
+     * Forget the deletions recorded at or before a change counter, which no snapshot still needs to catch up on.
+     *
+     * @param changeCounter The change counter
+     */
+    void pruneDeletedLocks(long changeCounter);
+
+    /**
+     * Write out any changes the storage is holding on to.
+     */
+    default void flush() {}
+
+}
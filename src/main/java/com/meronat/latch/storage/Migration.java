@@ -0,0 +1,57 @@
+/*
+ * This file is part of Latch, licensed under the MIT License.
+ *
+ * Copyright (c) 2016-2018 IchorPowered <https://github.com/IchorPowered>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.meronat.latch.storage;
+
+/**
+ * A step bringing the schema up to a version. Migrations run in order of version, each in its own transaction, and are recorded in
+ * SCHEMA_VERSION once they succeed so they only ever run once. H2 and MySQL commit schema changes as they run, so a migration which
+ * failed part way may have left some of its tables behind and must be able to run again over them.
+ */
+final class Migration {
+
+    private final int version;
+    private final String description;
+    private final SqlHandler.Mutation step;
+
+    Migration(int version, String description, SqlHandler.Mutation step) {
+        this.version = version;
+        this.description = description;
+        this.step = step;
+    }
+
+    int getVersion() {
+        return this.version;
+    }
+
+    String getDescription() {
+        return this.description;
+    }
+
+    SqlHandler.Mutation getStep() {
+        return this.step;
+    }
+
+}
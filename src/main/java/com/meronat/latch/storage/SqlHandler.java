@@ -27,406 +27,1343 @@ package com.meronat.latch.storage;
 
 import static com.meronat.latch.Latch.getLogger;
 
+import com.google.common.collect.ImmutableList;
 import com.meronat.latch.Latch;
 import com.meronat.latch.entities.Lock;
 import com.meronat.latch.enums.LockType;
+import com.meronat.latch.utils.IdDictionary;
+import com.meronat.latch.utils.LatchUtils;
+import com.meronat.latch.utils.SectionBitmap;
 import org.spongepowered.api.Sponge;
 import org.spongepowered.api.service.sql.SqlService;
 import org.spongepowered.api.world.Location;
 import org.spongepowered.api.world.World;
 
-import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
-import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 
-public class SqlHandler {
+/**
+ * The JDBC storage shared by every database Latch can run on. Implementations only provide the connection url and the handful of statements
+ * whose syntax differs between databases.
+ */
+public abstract class SqlHandler implements LockStorage {
+
+    //Keep IN lists well below the parameter limits of every database we might run on
+    private static final int MAX_IN_PARAMETERS = 500;
+    private static final Pattern CREATE_INDEX = Pattern.compile("CREATE INDEX (\\w+) ON (\\w+) .*");
+
+    //Every write transaction bumps the counter first, and tags the locks it touches with the new value
+    private static final String CURRENT_CHANGE = "(SELECT CHANGE_COUNTER FROM STORAGE_STATE WHERE ID = 1)";
+
+    private static final String INSERT_LOCK = "INSERT INTO LOCK(OWNER_UUID, LOCK_NAME, LOCK_TYPE, LOCKED_OBJECT, SALT, PASSWORD, REDSTONE_PROTECT, "
+        + "ACCESSED, CHANGE_ID) VALUES (?, ?, ?, ?, ?, ?, ?, ?, " + CURRENT_CHANGE + ")";
 
     @Nullable private SqlService sql;
 
-    public SqlHandler() {
-        createTables();
+    //The WORLDS table, both ways
+    private final IdDictionary worldIds = new IdDictionary();
+
+    /**
+     * Get the url used when storage_url is left empty in the configuration.
+     *
+     * @return The default connection url
+     * @throws SQLException If this database can't provide a default
+     */
+    protected abstract String getDefaultConnectionUrl() throws SQLException;
+
+    /**
+     * Get the statements creating the original LOCK, LOCK_LOCATIONS and LOCK_PLAYERS tables if they don't exist. Later migrations
+     * build on this layout.
+     *
+     * @return The table creation statements, in order
+     */
+    protected abstract List<String> getCreateTableStatements();
+
+    /**
+     * Get the statements creating the WORLDS table and the compact LOCK_NEW, LOCK_LOCATIONS_NEW and LOCK_PLAYERS_NEW tables, which
+     * replace the original ones once their rows have been copied over. UUIDs are stored as 16 bytes, lock types by their id and locations
+     * as a world id plus a packed position.
+     *
+     * @return The table creation statements, in order
+     */
+    protected abstract List<String> getCreateCompactTableStatements();
+
+    /**
+     * Get the statements making sure new locks get an ID above the ones copied into LOCK_NEW, for databases which don't move their
+     * auto increment past explicitly inserted IDs.
+     *
+     * @param nextId The lowest free lock ID
+     * @return The statements, in order
+     */
+    protected List<String> getRestartLockIdStatements(long nextId) {
+        return ImmutableList.of();
+    }
+
+    /**
+     * Get the statement inserting a LOCK_LOCATIONS row, moving the location over if it already belongs to a lock.
+     *
+     * @return An upsert taking LOCK_ID, WORLD_ID and PACKED_POSITION
+     */
+    protected abstract String getUpsertLocationStatement();
+
+    /**
+     * Get the statement inserting a LOCK_PLAYERS row unless the player can already access the lock.
+     *
+     * @return An upsert taking LOCK_ID and PLAYER_UUID
+     */
+    protected abstract String getUpsertAccessorStatement();
+
+    /**
+     * Get the statement deleting the rows of a child table belonging to the locks matching the condition.
+     *
+     * @param table The child table, LOCK_LOCATIONS or LOCK_PLAYERS
+     * @param lockCondition A condition on the columns of LOCK
+     * @return A delete taking the parameters of the condition
+     */
+    protected String getDeleteChildrenStatement(String table, String lockCondition) {
+        return "DELETE FROM " + table + " WHERE LOCK_ID IN (SELECT ID FROM LOCK WHERE " + lockCondition + ")";
+    }
+
+    /**
+     * Get the isolation level under which a transaction keeps reading the database as it was at its first read.
+     *
+     * @return One of the TRANSACTION_ levels of {@link Connection}
+     */
+    protected int getSnapshotIsolation() {
+        return Connection.TRANSACTION_REPEATABLE_READ;
+    }
+
+    /**
+     * Prepare a statement, giving the database a chance to adapt the shared SQL to its own dialect.
+     *
+     * @param connection The connection to prepare the statement on
+     * @param sql The statement
+     * @return The prepared statement
+     * @throws SQLException If the statement could not be prepared
+     */
+    protected PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        return connection.prepareStatement(sql);
     }
 
-    public void reloadTables() {
-        createTables();
+    protected PreparedStatement prepare(Connection connection, String sql, int autoGeneratedKeys) throws SQLException {
+        return connection.prepareStatement(sql, autoGeneratedKeys);
     }
 
     private Connection getConnection() throws SQLException {
         if (this.sql == null) {
             this.sql = Sponge.getServiceManager().provide(SqlService.class).get();
         }
-        return this.sql.getDataSource("jdbc:h2:" + Latch.getConfigPatch().getParent().toAbsolutePath().toString() + File.separator + "latch")
-            .getConnection();
-    }
-
-    private void createTables() {
-        String createLockTable =
-            "CREATE TABLE IF NOT EXISTS LOCK (" +
-                "ID bigint AUTO_INCREMENT, " +
-                "OWNER_UUID char(36) NOT NULL, " +
-                "LOCK_NAME varchar(25) NOT NULL, " +
-                "LOCK_TYPE varchar(15) NOT NULL, " +
-                "LOCKED_OBJECT varchar(50) NOT NULL, " +
-                "PASSWORD varchar(256) NOT NULL, " +
-                "SALT varchar(64) NOT NULL, " +
-                "REDSTONE_PROTECT BOOLEAN NOT NULL, " +
-                "ACCESSED DATETIME NOT NULL," +
-                "PRIMARY KEY(ID), CONSTRAINT UQ_OWNER_NAME UNIQUE (OWNER_UUID, LOCK_NAME) )";
-
-        String createLocationTable =
-            "CREATE TABLE IF NOT EXISTS LOCK_LOCATIONS (" +
-                "LOCK_ID bigint, " +
-                "WORLD_UUID char(36) NOT NULL, " +
-                "X int NOT NULL, " +
-                "Y int NOT NULL, " +
-                "Z int NOT NULL, " +
-                "FOREIGN KEY (LOCK_ID) REFERENCES LOCK(ID), " +
-                "PRIMARY KEY (WORLD_UUID, X, Y, Z) )";
-
-        String createPlayerTable =
-            "CREATE TABLE IF NOT EXISTS LOCK_PLAYERS (" +
-                "LOCK_ID bigint, " +
-                "PLAYER_UUID char(36) NOT NULL, " +
-                "FOREIGN KEY (LOCK_ID) REFERENCES LOCK(ID) )";
 
-        try (
-            Connection connection = getConnection();
-            PreparedStatement psLockTable = connection.prepareStatement(createLockTable);
-            PreparedStatement psLocationTable = connection.prepareStatement(createLocationTable);
-            PreparedStatement psPlayerTable = connection.prepareStatement(createPlayerTable)
-        ) {
-            psLockTable.execute();
-            psLocationTable.execute();
-            psPlayerTable.execute();
+        final String url = Latch.getSettings().getStorageUrl();
+
+        return this.sql.getDataSource(url.isEmpty() ? getDefaultConnectionUrl() : url).getConnection();
+    }
+
+    /**
+     * Get the migrations bringing the schema up to date, in order of version.
+     *
+     * @return The migrations
+     */
+    protected List<Migration> getMigrations() {
+        return ImmutableList.of(
+            new Migration(1, "create tables", this::createTables),
+            new Migration(2, "add indexes", connection -> {
+                execute(connection, getConstraintStatements());
+                execute(connection, getIndexStatements());
+            }),
+            new Migration(3, "compact storage format", this::migrateToCompactFormat),
+            new Migration(4, "change tracking", connection -> execute(connection, ImmutableList.of(
+                "CREATE TABLE STORAGE_STATE (ID int NOT NULL, CHANGE_COUNTER bigint NOT NULL, PRIMARY KEY (ID))",
+                "INSERT INTO STORAGE_STATE (ID, CHANGE_COUNTER) VALUES (1, 0)",
+                "ALTER TABLE LOCK ADD COLUMN CHANGE_ID bigint NOT NULL DEFAULT 0",
+                "CREATE INDEX IDX_LOCK_CHANGE_ID ON LOCK (CHANGE_ID)",
+                "CREATE TABLE DELETED_LOCKS (LOCK_ID bigint NOT NULL, CHANGE_ID bigint NOT NULL)",
+                "CREATE INDEX IDX_DELETED_LOCKS_CHANGE_ID ON DELETED_LOCKS (CHANGE_ID)"))),
+            new Migration(5, "forget password always accessors", this::forgetPasswordAlwaysAccessors));
+    }
+
+    /**
+     * Password always locks used to store the players who gave the password, and took them off again once they used the lock. Passes
+     * live in memory now, so any left behind would let a player in for good.
+     */
+    private void forgetPasswordAlwaysAccessors(Connection connection) throws SQLException {
+        final byte passwordAlways = LockType.PASSWORD_ALWAYS.getId();
+
+        beginChange(connection);
+        markChanged(connection, "LOCK_TYPE = ? AND ID IN (SELECT LOCK_ID FROM LOCK_PLAYERS)", passwordAlways);
+        execute(connection, ImmutableList.of("DELETE FROM LOCK_PLAYERS WHERE LOCK_ID IN (SELECT ID FROM LOCK WHERE LOCK_TYPE = " + passwordAlways + ")"));
+    }
+
+    /**
+     * Get the statements fixing up keys and constraints the original tables of this database were created without.
+     *
+     * @return The constraint statements, in order
+     */
+    protected List<String> getConstraintStatements() {
+        return ImmutableList.of();
+    }
+
+    /**
+     * Get the statements adding the indexes and constraints the lookups, cleanups and name checks rely on.
+     *
+     * @return The index statements, in order
+     */
+    protected List<String> getIndexStatements() {
+        //LOCK_PLAYERS is keyed by (LOCK_ID, PLAYER_UUID), which already covers lookups by lock
+        return ImmutableList.of(
+            "CREATE INDEX IDX_LOCK_LOCATIONS_LOCK_ID ON LOCK_LOCATIONS (LOCK_ID)",
+            "CREATE INDEX IDX_LOCK_ACCESSED ON LOCK (ACCESSED)",
+            "CREATE INDEX IDX_LOCK_NAME ON LOCK (LOCK_NAME)");
+    }
+
+    private void execute(Connection connection, List<String> statements) throws SQLException {
+        for (String statement : statements) {
+            try (PreparedStatement ps = prepare(connection, statement)) {
+                ps.execute();
+            }
+        }
+    }
+
+    /**
+     * Run every migration newer than the version of the schema. A failed migration is rolled back and stops the ones after it. H2 and
+     * MySQL commit every schema change as it runs, so only the rows a migration writes are rolled back there and migrations changing the
+     * schema have to cope with being run again on top of their own partial work.
+     */
+    @Override
+    public void createTables() {
+        try (Connection connection = getConnection()) {
+            execute(connection, ImmutableList.of("CREATE TABLE IF NOT EXISTS SCHEMA_VERSION (VERSION int NOT NULL, PRIMARY KEY (VERSION))"));
+
+            int schemaVersion = 0;
+
+            try (
+                PreparedStatement ps = prepare(connection, "SELECT MAX(VERSION) FROM SCHEMA_VERSION");
+                ResultSet rs = ps.executeQuery()
+            ) {
+                if (rs.next()) {
+                    schemaVersion = rs.getInt(1);
+                }
+            }
+
+            for (Migration migration : getMigrations()) {
+                if (migration.getVersion() <= schemaVersion) {
+                    continue;
+                }
+
+                getLogger().info("Migrating storage to version " + migration.getVersion() + ": " + migration.getDescription() + ".");
+                connection.setAutoCommit(false);
+
+                try (PreparedStatement ps = prepare(connection, "INSERT INTO SCHEMA_VERSION (VERSION) VALUES (?)")) {
+                    migration.getStep().apply(connection);
+
+                    ps.setInt(1, migration.getVersion());
+                    ps.executeUpdate();
+
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    forgetWorlds();
+                    getLogger().error("There was a problem migrating the storage to version " + migration.getVersion()
+                        + ". Please report this to the developers:");
+                    e.printStackTrace();
+                    return;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            }
         } catch (SQLException e) {
             getLogger().error("Error running SQL createTables:");
             e.printStackTrace();
         }
+    }
+
+    /**
+     * Copy every lock into the compact tables and swap them in for the original ones. Rows are copied with their IDs, skipping locations
+     * and accessors of locks which no longer exist.
+     *
+     * <p>Each original table is renamed aside before its compact table takes its name, and the originals are only dropped once every
+     * compact table is in place. An attempt interrupted during the swap is finished from where it stopped rather than copied again.</p>
+     */
+    private void migrateToCompactFormat(Connection connection) throws SQLException {
+        if (!isCompactSwapStarted(connection)) {
+            //Left behind by an earlier attempt interrupted while copying
+            execute(connection, ImmutableList.of(
+                "DROP TABLE IF EXISTS LOCK_PLAYERS_NEW", "DROP TABLE IF EXISTS LOCK_LOCATIONS_NEW", "DROP TABLE IF EXISTS LOCK_NEW"));
+            execute(connection, getCreateCompactTableStatements());
+            copyToCompactTables(connection);
+        }
+
+        for (String table : ImmutableList.of("LOCK_PLAYERS", "LOCK_LOCATIONS", "LOCK")) {
+            if (tableExists(connection, table + "_NEW")) {
+                if (tableExists(connection, table)) {
+                    execute(connection, ImmutableList.of("ALTER TABLE " + table + " RENAME TO " + table + "_OLD"));
+                }
+                execute(connection, ImmutableList.of("ALTER TABLE " + table + "_NEW RENAME TO " + table));
+            }
+        }
+
+        execute(connection, ImmutableList.of(
+            "DROP TABLE IF EXISTS LOCK_PLAYERS_OLD",
+            "DROP TABLE IF EXISTS LOCK_LOCATIONS_OLD",
+            "DROP TABLE IF EXISTS LOCK_OLD"));
+
+        //Index names can be shared by the whole schema, so they are only free once the original tables are gone
+        for (String statement : getIndexStatements()) {
+            final Matcher index = CREATE_INDEX.matcher(statement);
+            if (!index.matches() || !indexExists(connection, index.group(2), index.group(1))) {
+                execute(connection, ImmutableList.of(statement));
+            }
+        }
+    }
+
+    /**
+     * Check whether an earlier attempt at the compact format migration got as far as swapping the tables, after which the original
+     * tables can no longer be copied from.
+     */
+    private static boolean isCompactSwapStarted(Connection connection) throws SQLException {
+        for (String table : ImmutableList.of("LOCK_PLAYERS_OLD", "LOCK_LOCATIONS_OLD", "LOCK_OLD")) {
+            if (tableExists(connection, table)) {
+                return true;
+            }
+        }
+        return columnExists(connection, "LOCK_LOCATIONS", "WORLD_ID");
+    }
+
+    //Metadata lookups are limited to the database of the connection, as a MySQL server can hold other databases with the same tables
+    private static boolean tableExists(Connection connection, String table) throws SQLException {
+        try (ResultSet rs = connection.getMetaData().getTables(connection.getCatalog(), connection.getSchema(), table, null)) {
+            while (rs.next()) {
+                if (rs.getString("TABLE_NAME").equalsIgnoreCase(table)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static boolean columnExists(Connection connection, String table, String column) throws SQLException {
+        try (ResultSet rs = connection.getMetaData().getColumns(connection.getCatalog(), connection.getSchema(), table, column)) {
+            return rs.next();
+        }
+    }
+
+    private static boolean indexExists(Connection connection, String table, String index) throws SQLException {
+        try (ResultSet rs = connection.getMetaData().getIndexInfo(connection.getCatalog(), connection.getSchema(), table, false, false)) {
+            while (rs.next()) {
+                if (index.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private void copyToCompactTables(Connection connection) throws SQLException {
+        long nextId = 1;
 
         try (
-            Connection connection = getConnection();
-            PreparedStatement add = connection.prepareStatement("ALTER TABLE LOCK ADD COLUMN ACCESSED DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP")
+            PreparedStatement select = prepare(connection,
+                "SELECT ID, OWNER_UUID, LOCK_NAME, LOCK_TYPE, LOCKED_OBJECT, SALT, PASSWORD, REDSTONE_PROTECT, ACCESSED FROM LOCK");
+            PreparedStatement insert = prepare(connection, "INSERT INTO LOCK_NEW(ID, OWNER_UUID, LOCK_NAME, LOCK_TYPE, LOCKED_OBJECT, SALT, PASSWORD, "
+                + "REDSTONE_PROTECT, ACCESSED) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            ResultSet rs = select.executeQuery()
         ) {
-            DatabaseMetaData metaData = connection.getMetaData();
-            if (!metaData.getColumns(null, null, "LOCK", "ACCESSED").next()) {
-                add.execute();
+            int batched = 0;
+
+            while (rs.next()) {
+                insert.setLong(1, rs.getLong("ID"));
+                insert.setBytes(2, toBytes(parseLegacyValue(UUID::fromString, rs.getString("OWNER_UUID"), "lock " + rs.getLong("ID"))));
+                insert.setString(3, rs.getString("LOCK_NAME"));
+                insert.setByte(4, parseLegacyValue(LockType::valueOf, rs.getString("LOCK_TYPE"), "lock " + rs.getLong("ID")).getId());
+                insert.setString(5, rs.getString("LOCKED_OBJECT"));
+                insert.setBytes(6, rs.getBytes("SALT"));
+                insert.setString(7, rs.getString("PASSWORD"));
+                insert.setBoolean(8, rs.getBoolean("REDSTONE_PROTECT"));
+                insert.setTimestamp(9, rs.getTimestamp("ACCESSED"));
+                insert.addBatch();
+
+                nextId = Math.max(nextId, rs.getLong("ID") + 1);
+
+                if (++batched % MAX_IN_PARAMETERS == 0) {
+                    insert.executeBatch();
+                }
             }
-        } catch (SQLException e) {
-            getLogger().error("There was a problem adding the ACCESSED column. Please report this to the developers:");
-            e.printStackTrace();
+            insert.executeBatch();
         }
+
+        try (
+            PreparedStatement select = prepare(connection,
+                "SELECT LOCK_ID, WORLD_UUID, X, Y, Z FROM LOCK_LOCATIONS WHERE LOCK_ID IN (SELECT ID FROM LOCK)");
+            PreparedStatement insert = prepare(connection, "INSERT INTO LOCK_LOCATIONS_NEW(LOCK_ID, WORLD_ID, PACKED_POSITION) VALUES (?, ?, ?)");
+            ResultSet rs = select.executeQuery()
+        ) {
+            int batched = 0;
+
+            while (rs.next()) {
+                insert.setLong(1, rs.getLong("LOCK_ID"));
+                insert.setInt(2, getWorldId(connection,
+                    parseLegacyValue(UUID::fromString, rs.getString("WORLD_UUID"), "a location of lock " + rs.getLong("LOCK_ID")), true));
+                insert.setLong(3, LatchUtils.packPosition(rs.getInt("X"), rs.getInt("Y"), rs.getInt("Z")));
+                insert.addBatch();
+
+                if (++batched % MAX_IN_PARAMETERS == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+
+        try (
+            PreparedStatement select = prepare(connection, "SELECT LOCK_ID, PLAYER_UUID FROM LOCK_PLAYERS WHERE LOCK_ID IN (SELECT ID FROM LOCK)");
+            PreparedStatement insert = prepare(connection, "INSERT INTO LOCK_PLAYERS_NEW(LOCK_ID, PLAYER_UUID) VALUES (?, ?)");
+            ResultSet rs = select.executeQuery()
+        ) {
+            int batched = 0;
+
+            while (rs.next()) {
+                insert.setLong(1, rs.getLong("LOCK_ID"));
+                insert.setBytes(2, toBytes(parseLegacyValue(UUID::fromString, rs.getString("PLAYER_UUID"), "an accessor of lock " + rs.getLong("LOCK_ID"))));
+                insert.addBatch();
+
+                if (++batched % MAX_IN_PARAMETERS == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+
+        execute(connection, getRestartLockIdStatements(nextId));
     }
 
-    public Optional<Lock> getLockByLocation(Location location) {
-        Optional<Lock> optionalLock = Optional.empty();
+    /**
+     * Parse a value of a row written by an earlier version, naming the row if it holds something which can't be migrated.
+     */
+    private static <T> T parseLegacyValue(Function<String, T> parser, String value, String row) throws SQLException {
+        try {
+            return parser.apply(value);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new SQLException("Cannot migrate " + row + ", it holds the invalid value '" + value + "'", e);
+        }
+    }
 
+    private void beginChange(Connection connection) throws SQLException {
+        execute(connection, ImmutableList.of("UPDATE STORAGE_STATE SET CHANGE_COUNTER = CHANGE_COUNTER + 1 WHERE ID = 1"));
+    }
+
+    private void markChanged(Connection connection, String lockCondition, Object... parameters) throws SQLException {
+        try (PreparedStatement ps = prepare(connection, "UPDATE LOCK SET CHANGE_ID = " + CURRENT_CHANGE + " WHERE " + lockCondition)) {
+            for (int i = 0; i < parameters.length; i++) {
+                ps.setObject(i + 1, parameters[i]);
+            }
+            ps.executeUpdate();
+        }
+    }
+
+    private long getChangeCounter(Connection connection) throws SQLException {
+        try (
+            PreparedStatement ps = prepare(connection, "SELECT CHANGE_COUNTER FROM STORAGE_STATE WHERE ID = 1");
+            ResultSet rs = ps.executeQuery()
+        ) {
+            return rs.next() ? rs.getLong("CHANGE_COUNTER") : 0;
+        }
+    }
+
+    @Override
+    public Optional<LockOccupancy> getOccupancy() {
         try (
             Connection connection = getConnection();
-            PreparedStatement ps = connection.prepareStatement(
-                "SELECT ID, OWNER_UUID, LOCK_NAME, LOCK_TYPE, LOCKED_OBJECT, SALT, PASSWORD, REDSTONE_PROTECT, ACCESSED FROM LOCK_LOCATIONS " +
-                    "JOIN LOCK ON (LOCK_LOCATIONS.LOCK_ID = LOCK.ID) WHERE LOCK_LOCATIONS.WORLD_UUID = ? AND LOCK_LOCATIONS.X = ? AND LOCK_LOCATIONS.Y = ? AND LOCK_LOCATIONS.Z = ?")
+            PreparedStatement ps = prepare(connection, "SELECT WORLD_ID, PACKED_POSITION FROM LOCK_LOCATIONS");
+            ResultSet rs = ps.executeQuery()
         ) {
-            ps.setObject(1, location.getExtent().getUniqueId());
-            ps.setInt(2, location.getBlockX());
-            ps.setInt(3, location.getBlockY());
-            ps.setInt(4, location.getBlockZ());
-
-            try (ResultSet tempLock = ps.executeQuery()) {
-                //Should only be one lock at this location, if any
-                if (tempLock.next()) {
-                    optionalLock = Optional.of(Lock.builder()
-                        .owner(UUID.fromString(tempLock.getString("OWNER_UUID")))
-                        .name(tempLock.getString("LOCK_NAME"))
-                        .type(LockType.valueOf(tempLock.getString("LOCK_TYPE")))
-                        .locations(getLockLocationsByID(tempLock.getInt("ID")))
-                        .objectName(tempLock.getString("LOCKED_OBJECT"))
-                        .salt(tempLock.getBytes("SALT"))
-                        .password(tempLock.getString("PASSWORD"))
-                        .accessors(getAbleToAccessByID(tempLock.getInt("ID")))
-                        .protectFromRedstone(tempLock.getBoolean("REDSTONE_PROTECT"))
-                        .lastAccessed(tempLock.getTimestamp("ACCESSED").toLocalDateTime())
-                        .build());
+            final LockOccupancy occupancy = new LockOccupancy();
+
+            while (rs.next()) {
+                final UUID world = getWorldUniqueId(connection, rs.getInt("WORLD_ID"));
+                if (world != null) {
+                    occupancy.add(world, rs.getLong("PACKED_POSITION"));
                 }
             }
 
+            return Optional.of(occupancy);
         } catch (SQLException e) {
-            getLogger().error("Error running SQL getLockByLocation: ");
+            getLogger().error("Error getOccupancy:");
             e.printStackTrace();
         }
-        return optionalLock;
+        return Optional.empty();
     }
 
-    private Set<Location<World>> getLockLocationsByID(int id) {
-        final Set<Location<World>> locations = new HashSet<>();
-
+    @Override
+    public Optional<SectionBitmap> getRedstoneProtectedLocations() {
         try (
             Connection connection = getConnection();
-            PreparedStatement ps = connection.prepareStatement("SELECT WORLD_UUID, X, Y, Z FROM LOCK_LOCATIONS WHERE LOCK_LOCATIONS.LOCK_ID = ?")
+            PreparedStatement ps = prepare(connection, "SELECT LOCK_LOCATIONS.WORLD_ID, LOCK_LOCATIONS.PACKED_POSITION FROM LOCK_LOCATIONS "
+                + "JOIN LOCK ON LOCK.ID = LOCK_LOCATIONS.LOCK_ID WHERE LOCK.REDSTONE_PROTECT = ?")
         ) {
-            ps.setObject(1, id);
+            ps.setBoolean(1, true);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                final SectionBitmap protectedLocations = new SectionBitmap();
 
-            try (ResultSet rs = ps.executeQuery();) {
                 while (rs.next()) {
-                    final Optional<World> world = Sponge.getServer().getWorld(UUID.fromString(rs.getString("WORLD_UUID")));
-                    if (world.isPresent()) {
-                        locations.add(world.get().getLocation(rs.getInt("X"), rs.getInt("Y"), rs.getInt("Z")));
-                    } else {
-                        getLogger().error(
-                            "Error loading location in getLockLocationsByID: " + rs.getString("WORLD_UUID") +
-                                " does not exist as a world (ID: " + id + ")");
+                    final UUID world = getWorldUniqueId(connection, rs.getInt("WORLD_ID"));
+                    if (world != null) {
+                        protectedLocations.set(world, rs.getLong("PACKED_POSITION"));
                     }
                 }
+
+                return Optional.of(protectedLocations);
             }
         } catch (SQLException e) {
-            getLogger().error("Error running SQL getLockLocationsByID:");
+            getLogger().error("Error getRedstoneProtectedLocations:");
             e.printStackTrace();
         }
-        return locations;
+        return Optional.empty();
     }
 
-    private Set<UUID> getAbleToAccessByID(int id) {
-        final Set<UUID> players = new HashSet<>();
+    @Override
+    public Optional<SectionBitmap> getSupportBlocks(Collection<String> lockedObjects) {
+        final SectionBitmap supportBlocks = new SectionBitmap();
+        if (lockedObjects.isEmpty()) {
+            return Optional.of(supportBlocks);
+        }
+
+        final String in = "(" + String.join(", ", Collections.nCopies(lockedObjects.size(), "?")) + ")";
 
         try (
             Connection connection = getConnection();
-            PreparedStatement ps = connection.prepareStatement("SELECT PLAYER_UUID FROM LOCK_PLAYERS WHERE LOCK_PLAYERS.LOCK_ID = ?")
+            PreparedStatement ps = prepare(connection, "SELECT LOCK_LOCATIONS.WORLD_ID, LOCK_LOCATIONS.PACKED_POSITION FROM LOCK_LOCATIONS "
+                + "JOIN LOCK ON LOCK.ID = LOCK_LOCATIONS.LOCK_ID WHERE LOCK.LOCKED_OBJECT IN " + in)
         ) {
-            ps.setObject(1, id);
+            int i = 1;
+            for (String lockedObject : lockedObjects) {
+                ps.setString(i++, lockedObject);
+            }
 
-            try (ResultSet rs = ps.executeQuery();) {
+            try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
-                    players.add(UUID.fromString(rs.getString("PLAYER_UUID")));
+                    final UUID world = getWorldUniqueId(connection, rs.getInt("WORLD_ID"));
+                    if (world != null) {
+                        supportBlocks.set(world, LatchUtils.packPositionBelow(rs.getLong("PACKED_POSITION")));
+                    }
                 }
             }
+
+            return Optional.of(supportBlocks);
+        } catch (SQLException e) {
+            getLogger().error("Error getSupportBlocks:");
+            e.printStackTrace();
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public long getChangeCounter() {
+        try (Connection connection = getConnection()) {
+            return getChangeCounter(connection);
         } catch (SQLException e) {
-            getLogger().error("Error running SQL getAbleToAccessByID:");
+            getLogger().error("Error getChangeCounter:");
             e.printStackTrace();
         }
-        return players;
+        return -1;
     }
 
-    private Optional<Integer> getLockID(Lock lock) {
-        return getLockID(lock.getOwner(), lock.getName());
+    @Override
+    public List<Lock> getLocksChangedSince(long changeCounter) {
+        try (
+            Connection connection = getConnection();
+            PreparedStatement ps = prepare(connection, "SELECT ID FROM LOCK WHERE CHANGE_ID > ?")
+        ) {
+            ps.setLong(1, changeCounter);
+
+            return loadLocks(connection, ps);
+        } catch (SQLException e) {
+            getLogger().error("Error getLocksChangedSince: " + changeCounter);
+            e.printStackTrace();
+        }
+        return new ArrayList<>();
     }
 
-    private Optional<Integer> getLockID(UUID owner, String name) {
-        Optional<Integer> id = Optional.empty();
+    @Override
+    public Set<Long> getLocksDeletedSince(long changeCounter) {
+        final Set<Long> deleted = new HashSet<>();
 
         try (
             Connection connection = getConnection();
-            PreparedStatement ps = connection.prepareStatement("SELECT ID FROM LOCK WHERE LOCK.OWNER_UUID = ? AND LOCK.LOCK_NAME = ?")
+            PreparedStatement ps = prepare(connection, "SELECT LOCK_ID FROM DELETED_LOCKS WHERE CHANGE_ID > ?")
         ) {
-            ps.setObject(1, owner);
-            ps.setString(2, name);
+            ps.setLong(1, changeCounter);
 
             try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    id = Optional.of(rs.getInt("ID"));
+                while (rs.next()) {
+                    deleted.add(rs.getLong("LOCK_ID"));
                 }
             }
         } catch (SQLException e) {
+            getLogger().error("Error getLocksDeletedSince: " + changeCounter);
             e.printStackTrace();
         }
-        return id;
+        return deleted;
     }
 
-    private Optional<Integer> getLockID(Location location) {
-        Optional<Integer> id = Optional.empty();
+    /**
+     * Write every stored lock to a snapshot. Everything is read in one transaction which keeps seeing the database as it was when it read
+     * the change counter, so the snapshot matches a single state of the database however much is written meanwhile.
+     */
+    @Override
+    public void writeSnapshot(Path file) {
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (Connection connection = getConnection()) {
+            final int isolation = connection.getTransactionIsolation();
+            connection.setTransactionIsolation(getSnapshotIsolation());
+            connection.setAutoCommit(false);
 
+            try (
+                LockSnapshot.Writer writer = new LockSnapshot.Writer(temporary, getChangeCounter(connection));
+                PreparedStatement psWorlds = prepare(connection, "SELECT ID, WORLD_UUID FROM WORLDS");
+                PreparedStatement psLocks = prepare(connection,
+                    "SELECT ID, OWNER_UUID, LOCK_NAME, LOCK_TYPE, LOCKED_OBJECT, SALT, PASSWORD, REDSTONE_PROTECT, ACCESSED FROM LOCK");
+                PreparedStatement psLocations = prepare(connection, "SELECT LOCK_ID, WORLD_ID, PACKED_POSITION FROM LOCK_LOCATIONS");
+                PreparedStatement psPlayers = prepare(connection, "SELECT LOCK_ID, PLAYER_UUID FROM LOCK_PLAYERS ORDER BY LOCK_ID")
+            ) {
+                try (ResultSet rs = psWorlds.executeQuery()) {
+                    while (rs.next()) {
+                        writer.writeWorld(rs.getInt("ID"), toUUID(rs.getBytes("WORLD_UUID")));
+                    }
+                }
+
+                try (ResultSet rs = psLocks.executeQuery()) {
+                    while (rs.next()) {
+                        writer.writeLock(rs.getLong("ID"), toUUID(rs.getBytes("OWNER_UUID")), LockType.fromId(rs.getByte("LOCK_TYPE")),
+                            rs.getBoolean("REDSTONE_PROTECT"), rs.getTimestamp("ACCESSED").toLocalDateTime(), rs.getString("LOCK_NAME"),
+                            rs.getString("LOCKED_OBJECT"), rs.getString("PASSWORD"), rs.getBytes("SALT"));
+                    }
+                }
+
+                try (ResultSet rs = psLocations.executeQuery()) {
+                    while (rs.next()) {
+                        writer.writeLocation(rs.getLong("LOCK_ID"), rs.getInt("WORLD_ID"), rs.getLong("PACKED_POSITION"));
+                    }
+                }
+
+                //Accessors are written together per lock, so the rows come sorted by lock
+                try (ResultSet rs = psPlayers.executeQuery()) {
+                    final List<UUID> accessors = new ArrayList<>();
+                    long lockId = 0;
+
+                    while (rs.next()) {
+                        if (rs.getLong("LOCK_ID") != lockId && !accessors.isEmpty()) {
+                            writer.writeAccessors(lockId, accessors);
+                            accessors.clear();
+                        }
+                        lockId = rs.getLong("LOCK_ID");
+                        accessors.add(toUUID(rs.getBytes("PLAYER_UUID")));
+                    }
+
+                    if (!accessors.isEmpty()) {
+                        writer.writeAccessors(lockId, accessors);
+                    }
+                }
+
+                connection.commit();
+            } catch (SQLException | IOException e) {
+                connection.rollback();
+                Files.deleteIfExists(temporary);
+                throw e;
+            } finally {
+                connection.setTransactionIsolation(isolation);
+                connection.setAutoCommit(true);
+            }
+
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (SQLException | IOException e) {
+            getLogger().error("Error writing lock snapshot " + file + ":");
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void pruneDeletedLocks(long changeCounter) {
         try (
             Connection connection = getConnection();
-            PreparedStatement ps = connection.prepareStatement(
-            "SELECT LOCK_ID FROM LOCK_LOCATIONS WHERE LOCK_LOCATIONS.WORLD_UUID = ? AND LOCK_LOCATIONS.X = ? AND LOCK_LOCATIONS.Y = ? AND LOCK_LOCATIONS.Z = ?")
+            PreparedStatement ps = prepare(connection, "DELETE FROM DELETED_LOCKS WHERE CHANGE_ID <= ?")
         ) {
-            ps.setObject(1, location.getExtent().getUniqueId());
-            ps.setInt(2, location.getBlockX());
-            ps.setInt(3, location.getBlockY());
-            ps.setInt(4, location.getBlockZ());
+            ps.setLong(1, changeCounter);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            getLogger().error("Error pruneDeletedLocks: " + changeCounter);
+            e.printStackTrace();
+        }
+    }
+
+    static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
+    }
+
+    static UUID toUUID(byte[] bytes) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * Get the id of a world in the WORLDS table.
+     *
+     * @param connection The connection to look the world up with
+     * @param world The unique id of the world
+     * @param create Whether to add the world if it isn't there yet
+     * @return The id of the world, or 0 if it isn't there and shouldn't be created
+     * @throws SQLException If the lookup or insert fails
+     */
+    private synchronized int getWorldId(Connection connection, UUID world, boolean create) throws SQLException {
+        final int cached = this.worldIds.findId(world);
+        if (cached != IdDictionary.NO_ID) {
+            return cached;
+        }
+
+        try (PreparedStatement ps = prepare(connection, "SELECT ID FROM WORLDS WHERE WORLD_UUID = ?")) {
+            ps.setBytes(1, toBytes(world));
 
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
-                    id = Optional.of(rs.getInt("LOCK_ID"));
+                    cacheWorld(rs.getInt("ID"), world);
+                    return rs.getInt("ID");
                 }
             }
-        } catch (SQLException e) {
-            getLogger().error("Error running SQL getLockID:");
-            e.printStackTrace();
         }
-        return id;
-    }
 
-    public void addLockAccess(Lock thisLock, UUID player) {
-        Optional<Integer> id = getLockID(thisLock);
+        if (!create) {
+            return 0;
+        }
+
+        try (PreparedStatement ps = prepare(connection, "INSERT INTO WORLDS(WORLD_UUID) VALUES (?)", PreparedStatement.RETURN_GENERATED_KEYS)) {
+            ps.setBytes(1, toBytes(world));
+            ps.executeUpdate();
 
-        if (id.isPresent()) {
+            try (ResultSet rs = ps.getGeneratedKeys()) {
+                if (rs.next()) {
+                    cacheWorld(rs.getInt(1), world);
+                    return rs.getInt(1);
+                }
+            }
+        }
+        throw new SQLException("ResultSet did not return an ID for world " + world);
+    }
+
+    @Nullable
+    private UUID getWorldUniqueId(Connection connection, int worldId) throws SQLException {
+        if (this.worldIds.getUniqueId(worldId) == null) {
+            //There are only ever a handful of worlds, so fetch them all at once
             try (
-                Connection connection = getConnection();
-                PreparedStatement ps = connection.prepareStatement("INSERT INTO LOCK_PLAYERS(LOCK_ID, PLAYER_UUID) VALUES (?, ?)")
+                PreparedStatement ps = prepare(connection, "SELECT ID, WORLD_UUID FROM WORLDS");
+                ResultSet rs = ps.executeQuery()
             ) {
-                ps.setInt(1, id.get());
-                ps.setObject(2, player);
-                ps.executeUpdate();
-            } catch (SQLException e) {
-                getLogger().error("Error addLockAccess for " + thisLock.getName() + ", owner: " + thisLock.getOwner() + ", player: " + player);
-                e.printStackTrace();
+                while (rs.next()) {
+                    cacheWorld(rs.getInt("ID"), toUUID(rs.getBytes("WORLD_UUID")));
+                }
             }
         }
+        return this.worldIds.getUniqueId(worldId);
     }
 
-    public void createLock(Lock lock, Set<Location<World>> locations, Set<UUID> ableToAccess) {
-        try (Connection connection = getConnection();
-            PreparedStatement psLock = connection.prepareStatement(
-            "INSERT INTO LOCK(OWNER_UUID, LOCK_NAME, LOCK_TYPE, LOCKED_OBJECT, SALT, PASSWORD, REDSTONE_PROTECT, ACCESSED) VALUES (?, ?, ?, ?, ?, ?, ?, ?)",
-            PreparedStatement.RETURN_GENERATED_KEYS);
-            PreparedStatement psLocations = connection.prepareStatement(
-            "INSERT INTO LOCK_LOCATIONS(LOCK_ID, WORLD_UUID, X, Y, Z) VALUES (?, ?, ?, ?, ?)");
-            PreparedStatement psPlayers = connection.prepareStatement("INSERT INTO LOCK_PLAYERS(LOCK_ID, PLAYER_UUID) VALUES (?, ?)")
+    private void cacheWorld(int worldId, UUID world) {
+        this.worldIds.put(worldId, world);
+    }
+
+    //Worlds added by a rolled back transaction are gone again
+    private void forgetWorlds() {
+        this.worldIds.clear();
+    }
+
+    private void createTables(Connection connection) throws SQLException {
+        execute(connection, getCreateTableStatements());
+
+        //Databases from before the access time was tracked
+        if (!columnExists(connection, "LOCK", "ACCESSED")) {
+            execute(connection, ImmutableList.of("ALTER TABLE LOCK ADD COLUMN ACCESSED DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP"));
+        }
+    }
+
+    @Override
+    public Optional<Lock> getLockByLocation(Location location) {
+        try (
+            Connection connection = getConnection();
+            PreparedStatement ps = prepare(connection, "SELECT LOCK_ID FROM LOCK_LOCATIONS WHERE WORLD_ID = ? AND PACKED_POSITION = ?")
         ) {
-            psLock.setObject(1, lock.getOwner());
-            psLock.setString(2, lock.getName());
-            psLock.setString(3, lock.getLockType().toString());
-            psLock.setString(4, lock.getLockedObject());
-            psLock.setBytes(5, lock.getSalt());
-            psLock.setString(6, lock.getPassword());
-            psLock.setBoolean(7, lock.getProtectFromRedstone());
-            psLock.setTimestamp(8, Timestamp.valueOf(lock.getLastAccessed()));
+            final int worldId = getWorldId(connection, location.getExtent().getUniqueId(), false);
+            if (worldId == 0) {
+                return Optional.empty();
+            }
 
-            psLock.executeUpdate();
+            ps.setInt(1, worldId);
+            ps.setLong(2, LatchUtils.packPosition(location));
 
-            try (ResultSet rsLock = psLock.getGeneratedKeys()) {
-                if (rsLock.next()) {
-                    //If the lock was successfully created, proceed with inserting remaining information
-                    //Insert the lock locations
-                    for (Location<World> location : locations) {
-                        psLocations.setLong(1, rsLock.getLong(1));
-                        psLocations.setObject(2, location.getExtent().getUniqueId());
-                        psLocations.setInt(3, location.getBlockX());
-                        psLocations.setInt(4, location.getBlockY());
-                        psLocations.setInt(5, location.getBlockZ());
-                        psLocations.addBatch();
-                    }
-                    psLocations.executeBatch();
+            //Should only be one lock at this location, if any
+            return loadLocks(connection, ps).stream().findFirst();
+        } catch (SQLException e) {
+            getLogger().error("Error running SQL getLockByLocation: ");
+            e.printStackTrace();
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public List<Lock> getLocksByLocations(Collection<Location<World>> locations) {
+        final Map<UUID, List<Long>> positions = new HashMap<>();
+        for (Location<World> location : locations) {
+            positions.computeIfAbsent(location.getExtent().getUniqueId(), world -> new ArrayList<>()).add(LatchUtils.packPosition(location));
+        }
 
-                    //Insert the players able to access
-                    for (UUID uuid : ableToAccess) {
-                        psPlayers.setLong(1, rsLock.getLong(1));
-                        psPlayers.setObject(2, uuid);
-                        psPlayers.addBatch();
+        try (Connection connection = getConnection()) {
+            final Set<Long> ids = new HashSet<>();
+
+            for (Map.Entry<UUID, List<Long>> world : positions.entrySet()) {
+                final int worldId = getWorldId(connection, world.getKey(), false);
+                if (worldId == 0) {
+                    continue;
+                }
+
+                //One parameter goes to the world
+                final List<Long> worldPositions = world.getValue();
+                for (int from = 0; from < worldPositions.size(); from += MAX_IN_PARAMETERS - 1) {
+                    final List<Long> batch = worldPositions.subList(from, Math.min(from + MAX_IN_PARAMETERS - 1, worldPositions.size()));
+                    final String in = "(" + String.join(", ", Collections.nCopies(batch.size(), "?")) + ")";
+
+                    try (PreparedStatement ps = prepare(connection,
+                        "SELECT LOCK_ID FROM LOCK_LOCATIONS WHERE WORLD_ID = ? AND PACKED_POSITION IN " + in)) {
+                        ps.setInt(1, worldId);
+                        for (int i = 0; i < batch.size(); i++) {
+                            ps.setLong(i + 2, batch.get(i));
+                        }
+
+                        try (ResultSet rs = ps.executeQuery()) {
+                            while (rs.next()) {
+                                ids.add(rs.getLong("LOCK_ID"));
+                            }
+                        }
                     }
-                    psPlayers.executeBatch();
-                } else {
-                    throw new SQLException("ResultSet did not return a PK for subsequent inserts.");
                 }
             }
+
+            return loadLocks(connection, new ArrayList<>(ids));
         } catch (SQLException e) {
+            getLogger().error("Error running SQL getLocksByLocations: ");
             e.printStackTrace();
         }
+        return new ArrayList<>();
     }
 
-    public void deleteLock(Location<World> location, boolean deleteEntireLock) {
-        final Optional<Integer> lockKey = getLockID(location);
-        boolean fullyDelete = deleteEntireLock; //do we fully delete the lock (from all tables)
+    /**
+     * Load the locks whose IDs are selected by the given statement. The lock rows, locations and accessors are each fetched with set based
+     * queries over the whole batch of IDs rather than once per lock.
+     *
+     * @param connection The connection to load the locks with
+     * @param idQuery A statement selecting lock IDs as its first column
+     * @return The fully built locks
+     * @throws SQLException If any of the queries fail
+     */
+    private List<Lock> loadLocks(Connection connection, PreparedStatement idQuery) throws SQLException {
+        final List<Long> ids = new ArrayList<>();
+
+        try (ResultSet rs = idQuery.executeQuery()) {
+            while (rs.next()) {
+                ids.add(rs.getLong(1));
+            }
+        }
 
-        if (lockKey.isPresent()) {
-            try (Connection connection = getConnection()) {
-                //If not forced to delete the entire lock(all locations), only do it if it's the last location
-                if (!fullyDelete) {
-                    try (PreparedStatement ps = connection.prepareStatement("SELECT COUNT(*) FROM LOCK_LOCATIONS WHERE LOCK_ID = ?")) {
-                        ps.setLong(1, lockKey.get());
+        return loadLocks(connection, ids);
+    }
 
-                        try (ResultSet rs = ps.executeQuery();) {
-                            //if only one row left, fully delete or if no locations left, fully delete
-                            fullyDelete = !rs.next() || rs.getLong(1) <= 1;
-                        }
+    private List<Lock> loadLocks(Connection connection, List<Long> ids) throws SQLException {
+        final List<Lock> locks = new ArrayList<>();
+        final Map<Long, Lock> locksById = new HashMap<>();
+        final Map<Integer, Optional<UUID>> worlds = new HashMap<>();
+
+        for (int from = 0; from < ids.size(); from += MAX_IN_PARAMETERS) {
+            final List<Long> batch = ids.subList(from, Math.min(from + MAX_IN_PARAMETERS, ids.size()));
+            final String in = "(" + String.join(", ", Collections.nCopies(batch.size(), "?")) + ")";
+
+            try (PreparedStatement ps = prepare(connection,
+                "SELECT ID, OWNER_UUID, LOCK_NAME, LOCK_TYPE, LOCKED_OBJECT, SALT, PASSWORD, REDSTONE_PROTECT, ACCESSED FROM LOCK WHERE ID IN " + in)) {
+                setIds(ps, batch);
+
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        final Lock lock = Lock.builder()
+                            .id(rs.getLong("ID"))
+                            .owner(toUUID(rs.getBytes("OWNER_UUID")))
+                            .name(rs.getString("LOCK_NAME"))
+                            .type(LockType.fromId(rs.getByte("LOCK_TYPE")))
+                            .objectName(rs.getString("LOCKED_OBJECT"))
+                            .salt(rs.getBytes("SALT"))
+                            .password(rs.getString("PASSWORD"))
+                            .protectFromRedstone(rs.getBoolean("REDSTONE_PROTECT"))
+                            .lastAccessed(rs.getTimestamp("ACCESSED").toLocalDateTime())
+                            .build();
+
+                        locks.add(lock);
+                        locksById.put(lock.getId(), lock);
                     }
                 }
+            }
+
+            try (PreparedStatement ps = prepare(connection, "SELECT LOCK_ID, WORLD_ID, PACKED_POSITION FROM LOCK_LOCATIONS WHERE LOCK_ID IN " + in)) {
+                setIds(ps, batch);
+
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        final int worldId = rs.getInt("WORLD_ID");
+                        if (!worlds.containsKey(worldId)) {
+                            worlds.put(worldId, Optional.ofNullable(getWorldUniqueId(connection, worldId)));
+                        }
 
-                if (fullyDelete) {
-                    try (
-                        PreparedStatement locationDelete = connection.prepareStatement("DELETE FROM LOCK_LOCATIONS WHERE LOCK_ID = ?");
-                        PreparedStatement playersDelete = connection.prepareStatement("DELETE FROM LOCK_PLAYERS WHERE LOCK_ID = ?");
-                        PreparedStatement lockDelete = connection.prepareStatement("DELETE FROM LOCK WHERE ID = ?")
-                    ) {
-                        locationDelete.setLong(1, lockKey.get());
-                        locationDelete.execute();
+                        //The world doesn't need to be loaded, locks only keep its id
+                        final Optional<UUID> world = worlds.get(worldId);
+                        final Lock lock = locksById.get(rs.getLong("LOCK_ID"));
+                        if (world.isPresent() && lock.getWorldUniqueId().filter(w -> !w.equals(world.get())).isPresent()) {
+                            getLogger().error("Error loading location in loadLocks: lock " + rs.getLong("LOCK_ID") + " has locations in more than one world");
+                        } else if (world.isPresent()) {
+                            lock.addPosition(world.get(), rs.getLong("PACKED_POSITION"));
+                        } else {
+                            getLogger().error(
+                                "Error loading location in loadLocks: " + worldId + " does not exist as a world (ID: " + rs.getLong("LOCK_ID") + ")");
+                        }
+                    }
+                }
+            }
 
-                        playersDelete.setLong(1, lockKey.get());
-                        playersDelete.execute();
+            try (PreparedStatement ps = prepare(connection, "SELECT LOCK_ID, PLAYER_UUID FROM LOCK_PLAYERS WHERE LOCK_ID IN " + in)) {
+                setIds(ps, batch);
 
-                        lockDelete.setLong(1, lockKey.get());
-                        lockDelete.execute();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        locksById.get(rs.getLong("LOCK_ID")).addAccess(toUUID(rs.getBytes("PLAYER_UUID")));
                     }
-                } else {
-                    try (PreparedStatement locationDelete = connection
-                        .prepareStatement("DELETE FROM LOCK_LOCATIONS WHERE WORLD_UUID = ? AND X = ? AND Y = ? AND Z = ?")) {
-                        locationDelete.setObject(1, location.getExtent().getUniqueId());
-                        locationDelete.setInt(2, location.getBlockX());
-                        locationDelete.setInt(3, location.getBlockY());
-                        locationDelete.setInt(4, location.getBlockZ());
-                        locationDelete.execute();
+                }
+            }
+        }
+
+        return locks;
+    }
+
+    private static void setIds(PreparedStatement ps, List<Long> ids) throws SQLException {
+        for (int i = 0; i < ids.size(); i++) {
+            ps.setLong(i + 1, ids.get(i));
+        }
+    }
+
+    /**
+     * Get the storage ID of a lock, looking it up by its owner and name if it isn't known yet.
+     *
+     * @param connection The connection to look the ID up with
+     * @param lock The lock
+     * @param owner The owner the lock is stored under
+     * @param name The name the lock is stored under
+     * @return The ID of the lock, or 0 if it isn't stored
+     * @throws SQLException If the lookup fails
+     */
+    private long getLockID(Connection connection, Lock lock, UUID owner, String name) throws SQLException {
+        if (lock.getId() == 0) {
+            try (PreparedStatement ps = prepare(connection, "SELECT ID FROM LOCK WHERE LOCK.OWNER_UUID = ? AND LOCK.LOCK_NAME = ?")) {
+                ps.setBytes(1, toBytes(owner));
+                ps.setString(2, name);
+
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (rs.next()) {
+                        lock.setId(rs.getLong("ID"));
+                    } else {
+                        getLogger().error("Lock " + name + " of owner " + owner + " could not be found in storage.");
                     }
                 }
+            }
+        }
+        return lock.getId();
+    }
+
+    private long getLockID(Connection connection, Lock lock) throws SQLException {
+        return getLockID(connection, lock, lock.getOwner(), lock.getName());
+    }
+
+    /**
+     * A write against the storage, which may be run as part of a larger transaction.
+     */
+    @FunctionalInterface
+    interface Mutation {
+
+        void apply(Connection connection) throws SQLException;
+
+    }
+
+    /**
+     * Apply a mutation as its own transaction, so it is either written completely or not at all.
+     *
+     * @return Whether the mutation was written
+     */
+    private boolean applyMutation(String description, Mutation mutation) {
+        try (Connection connection = getConnection()) {
+            connection.setAutoCommit(false);
+
+            try {
+                beginChange(connection);
+                mutation.apply(connection);
+                connection.commit();
+                return true;
             } catch (SQLException e) {
-                getLogger().error("Error deleteLock for location: " + location.toString());
+                connection.rollback();
+                forgetWorlds();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            getLogger().error("Error " + description);
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Apply the mutations, in order, as a single transaction. If the transaction fails the mutations are retried one at a time so a single
+     * bad write doesn't take the rest down with it.
+     *
+     * @param mutations The mutations to apply
+     * @return The mutations which could not be written even on their own
+     */
+    List<Mutation> applyMutations(Collection<Mutation> mutations) {
+        try (Connection connection = getConnection()) {
+            connection.setAutoCommit(false);
+
+            try {
+                beginChange(connection);
+                for (Mutation mutation : mutations) {
+                    mutation.apply(connection);
+                }
+                connection.commit();
+                return Collections.emptyList();
+            } catch (SQLException e) {
+                connection.rollback();
+                forgetWorlds();
+                getLogger().error("Error applying " + mutations.size() + " lock changes in one transaction, retrying them one at a time:");
                 e.printStackTrace();
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            getLogger().error("Error opening a transaction for " + mutations.size() + " lock changes, retrying them one at a time:");
+            e.printStackTrace();
+        }
+
+        final List<Mutation> failed = new ArrayList<>();
+        for (Mutation mutation : mutations) {
+            if (!applyMutation("applying a lock change", mutation)) {
+                failed.add(mutation);
+            }
+        }
+        return failed;
+    }
+
+    @Override
+    public void addLockAccess(Lock lock, UUID player) {
+        applyMutation("addLockAccess for " + lock.getName() + ", owner: " + lock.getOwner() + ", player: " + player,
+            connection -> addLockAccess(connection, lock, player));
+    }
+
+    void addLockAccess(Connection connection, Lock lock, UUID player) throws SQLException {
+        final long id = getLockID(connection, lock);
+
+        if (id != 0) {
+            markChanged(connection, "ID = ?", id);
+
+            try (PreparedStatement ps = prepare(connection, getUpsertAccessorStatement())) {
+                ps.setLong(1, id);
+                ps.setBytes(2, toBytes(player));
+                ps.executeUpdate();
+            }
+        }
+    }
+
+    @Override
+    public void createLock(Lock lock, Set<Location<World>> locations, Set<UUID> ableToAccess) {
+        applyMutation("createLock for " + lock.getName() + ", owner: " + lock.getOwner(),
+            connection -> createLock(connection, lock, locations, ableToAccess));
+    }
+
+    /**
+     * Insert a lock with its locations and accessors, and give it the ID it was stored under.
+     *
+     * @return The generated ID of the lock
+     */
+    long createLock(Connection connection, Lock lock, Set<Location<World>> locations, Set<UUID> ableToAccess) throws SQLException {
+        try (
+            PreparedStatement psLock = prepare(connection, INSERT_LOCK, PreparedStatement.RETURN_GENERATED_KEYS);
+            PreparedStatement psLocations = prepare(connection, getUpsertLocationStatement());
+            PreparedStatement psPlayers = prepare(connection, getUpsertAccessorStatement())
+        ) {
+            setLockRow(psLock, lock);
+            psLock.executeUpdate();
+
+            try (ResultSet rsLock = psLock.getGeneratedKeys()) {
+                if (!rsLock.next()) {
+                    throw new SQLException("ResultSet did not return a PK for subsequent inserts.");
+                }
+                lock.setId(rsLock.getLong(1));
             }
-        } else {
-            getLogger().error("Error deleteLock for location (ID not found): " + location.toString());
+
+            addChildRows(connection, psLocations, psPlayers, lock.getId(), locations, ableToAccess);
+            psLocations.executeBatch();
+            psPlayers.executeBatch();
+
+            return lock.getId();
+        } catch (SQLException e) {
+            //The insert is rolled back along with whatever went wrong
+            lock.setId(0);
+            throw e;
         }
     }
 
-    public void deleteLocksForPlayer(UUID player) {
+    @Override
+    public void createLocks(Collection<Lock> locks) {
+        applyMutation("createLocks for " + locks.size() + " locks", connection -> createLocks(connection, locks));
+    }
+
+    /**
+     * Insert many locks with their locations and accessors, batching the lock rows and all of their child rows.
+     */
+    void createLocks(Connection connection, Collection<Lock> locks) throws SQLException {
+        try (
+            PreparedStatement psLock = prepare(connection, INSERT_LOCK, PreparedStatement.RETURN_GENERATED_KEYS);
+            PreparedStatement psLocations = prepare(connection, getUpsertLocationStatement());
+            PreparedStatement psPlayers = prepare(connection, getUpsertAccessorStatement())
+        ) {
+            for (Lock lock : locks) {
+                setLockRow(psLock, lock);
+                psLock.addBatch();
+            }
+            psLock.executeBatch();
+
+            final List<Long> ids = new ArrayList<>();
+            try (ResultSet rsLock = psLock.getGeneratedKeys()) {
+                while (rsLock.next()) {
+                    ids.add(rsLock.getLong(1));
+                }
+            }
+
+            //Not every driver returns a key for each row of a batch, without them the locks are looked up by owner and name
+            final Iterator<Long> generatedIds = ids.iterator();
+            for (Lock lock : locks) {
+                lock.setId(ids.size() == locks.size() ? generatedIds.next() : 0);
+            }
+
+            for (Lock lock : locks) {
+                final long id = getLockID(connection, lock);
+                if (id == 0) {
+                    throw new SQLException("Lock " + lock.getName() + " of owner " + lock.getOwner() + " was not stored.");
+                }
+                addChildRows(connection, psLocations, psPlayers, id, lock.getLocations(), lock.getAccessors());
+            }
+            psLocations.executeBatch();
+            psPlayers.executeBatch();
+        } catch (SQLException e) {
+            locks.forEach(lock -> lock.setId(0));
+            throw e;
+        }
+    }
+
+    private static void setLockRow(PreparedStatement ps, Lock lock) throws SQLException {
+        ps.setBytes(1, toBytes(lock.getOwner()));
+        ps.setString(2, lock.getName());
+        ps.setByte(3, lock.getLockType().getId());
+        ps.setString(4, lock.getLockedObject());
+        ps.setBytes(5, lock.getSalt());
+        ps.setString(6, lock.getPassword());
+        ps.setBoolean(7, lock.getProtectFromRedstone());
+        ps.setTimestamp(8, Timestamp.valueOf(lock.getLastAccessed()));
+    }
+
+    private void addChildRows(Connection connection, PreparedStatement psLocations, PreparedStatement psPlayers, long id,
+        Set<Location<World>> locations, Set<UUID> ableToAccess) throws SQLException {
+        for (Location<World> location : locations) {
+            psLocations.setLong(1, id);
+            psLocations.setInt(2, getWorldId(connection, location.getExtent().getUniqueId(), true));
+            psLocations.setLong(3, LatchUtils.packPosition(location));
+            psLocations.addBatch();
+        }
+
+        for (UUID uuid : ableToAccess) {
+            psPlayers.setLong(1, id);
+            psPlayers.setBytes(2, toBytes(uuid));
+            psPlayers.addBatch();
+        }
+    }
+
+    @Override
+    public void deleteLock(Lock lock) {
+        applyMutation("deleteLock for " + lock.getName() + ", owner: " + lock.getOwner(), connection -> deleteLock(connection, lock));
+    }
+
+    void deleteLock(Connection connection, Lock lock) throws SQLException {
+        final long id = getLockID(connection, lock);
+
+        if (id != 0) {
+            deleteLocksWhere(connection, "ID = ?", id);
+        }
+    }
+
+    @Override
+    public void removeLockLocation(Lock lock, Location<World> location) {
+        applyMutation("removeLockLocation for location: " + location.toString(), connection -> removeLockLocation(connection, location));
+    }
+
+    void removeLockLocation(Connection connection, Location<World> location) throws SQLException {
+        final int worldId = getWorldId(connection, location.getExtent().getUniqueId(), false);
+        if (worldId == 0) {
+            return;
+        }
+
+        final long position = LatchUtils.packPosition(location);
+        markChanged(connection, "ID IN (SELECT LOCK_ID FROM LOCK_LOCATIONS WHERE WORLD_ID = ? AND PACKED_POSITION = ?)", worldId, position);
+
+        try (PreparedStatement locationDelete = prepare(connection, "DELETE FROM LOCK_LOCATIONS WHERE WORLD_ID = ? AND PACKED_POSITION = ?")) {
+            locationDelete.setInt(1, worldId);
+            locationDelete.setLong(2, position);
+            locationDelete.execute();
+        }
+    }
+
+    /**
+     * Delete the locks matching the condition along with their locations and accessors.
+     *
+     * @param connection The connection to delete with
+     * @param lockCondition A condition on the columns of LOCK
+     * @param parameters The parameters of the condition
+     * @return The amount of locks deleted
+     * @throws SQLException If any of the deletes fail
+     */
+    private int deleteLocksWhere(Connection connection, String lockCondition, Object... parameters) throws SQLException {
+        //Deletions are only recorded for catching a snapshot up, so there is nothing to record without snapshots
+        if (Latch.getSettings().getSnapshotInterval() > 0) {
+            try (PreparedStatement psTombstones = prepare(connection,
+                "INSERT INTO DELETED_LOCKS (LOCK_ID, CHANGE_ID) SELECT ID, " + CURRENT_CHANGE + " FROM LOCK WHERE " + lockCondition)) {
+                for (int i = 0; i < parameters.length; i++) {
+                    psTombstones.setObject(i + 1, parameters[i]);
+                }
+                psTombstones.executeUpdate();
+            }
+        }
+
+        try (
+            PreparedStatement psLocations = prepare(connection, getDeleteChildrenStatement("LOCK_LOCATIONS", lockCondition));
+            PreparedStatement psAccessors = prepare(connection, getDeleteChildrenStatement("LOCK_PLAYERS", lockCondition));
+            PreparedStatement psLocks = prepare(connection, "DELETE FROM LOCK WHERE " + lockCondition)
+        ) {
+            for (int i = 0; i < parameters.length; i++) {
+                psLocations.setObject(i + 1, parameters[i]);
+                psAccessors.setObject(i + 1, parameters[i]);
+                psLocks.setObject(i + 1, parameters[i]);
+            }
+
+            psLocations.executeUpdate();
+            psAccessors.executeUpdate();
+            return psLocks.executeUpdate();
+        }
+    }
+
+    /**
+     * Delete the locks matching the condition in batches of at most {@link #MAX_IN_PARAMETERS}, committing after each batch so lock
+     * lookups are never held up for long.
+     *
+     * @param lockCondition A condition on the columns of LOCK
+     * @param parameters The parameters of the condition
+     * @return The IDs of the locks deleted
+     * @throws SQLException If any of the batches fail, batches before it stay deleted
+     */
+    private Set<Long> deleteLocksInBatches(String lockCondition, Object... parameters) throws SQLException {
+        final Set<Long> deleted = new HashSet<>();
+
         try (
             Connection connection = getConnection();
-            PreparedStatement ps = connection.prepareStatement("SELECT ID FROM LOCK WHERE OWNER_UUID = ?")
+            PreparedStatement psIds = prepare(connection, "SELECT ID FROM LOCK WHERE " + lockCondition)
         ) {
-            ps.setString(1, player.toString());
+            psIds.setMaxRows(MAX_IN_PARAMETERS);
+            for (int i = 0; i < parameters.length; i++) {
+                psIds.setObject(i + 1, parameters[i]);
+            }
 
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    try (
-                        PreparedStatement psLocations = connection.prepareStatement("DELETE FROM LOCK_LOCATIONS WHERE LOCK_ID = ?");
-                        PreparedStatement psAccessors = connection.prepareStatement("DELETE FROM LOCK_PLAYERS WHERE LOCK_ID = ?");
-                        PreparedStatement psLocks = connection.prepareStatement("DELETE FROM LOCK WHERE ID = ?")
-                    ) {
-                        String lockId = rs.getString(1);
-
-                        psLocations.setString(1, lockId);
-                        psAccessors.setString(1, lockId);
-                        psLocks.setString(1, lockId);
-
-                        psLocations.execute();
-                        psAccessors.execute();
-                        psLocks.execute();
+            connection.setAutoCommit(false);
+
+            try {
+                List<Long> batch;
+
+                do {
+                    batch = new ArrayList<>();
+
+                    try (ResultSet rs = psIds.executeQuery()) {
+                        while (rs.next()) {
+                            batch.add(rs.getLong("ID"));
+                        }
                     }
-                }
+
+                    if (!batch.isEmpty()) {
+                        beginChange(connection);
+                        deleteLocksWhere(connection, "ID IN (" + String.join(", ", Collections.nCopies(batch.size(), "?")) + ")", batch.toArray());
+                        connection.commit();
+                        deleted.addAll(batch);
+                    }
+                } while (batch.size() == MAX_IN_PARAMETERS);
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
             }
+        }
+
+        return deleted;
+    }
+
+    @Override
+    public Set<Long> deleteLocksForPlayer(UUID player) {
+        try {
+            return deleteLocksInBatches("OWNER_UUID = ?", (Object) toBytes(player));
         } catch (SQLException e) {
             getLogger().error("Error deleting locks for player: " + player.toString());
+            e.printStackTrace();
         }
+        return Collections.emptySet();
     }
 
+    @Override
     public boolean isUniqueName(UUID playerUUID, String lockName) {
         try (
             Connection connection = getConnection();
-            PreparedStatement ps = connection.prepareStatement("SELECT COUNT(*) FROM LOCK WHERE OWNER_UUID = ? AND LOCK_NAME = ?")
+            PreparedStatement ps = prepare(connection, "SELECT COUNT(*) FROM LOCK WHERE OWNER_UUID = ? AND LOCK_NAME = ?")
         ) {
-            ps.setObject(1, playerUUID);
+            ps.setBytes(1, toBytes(playerUUID));
             ps.setString(2, lockName);
 
             try (ResultSet rs = ps.executeQuery()) {
@@ -441,15 +1378,28 @@ public class SqlHandler {
         return false;
     }
 
+    @Override
     public String getRandomLockName(UUID owner, String lockedObjectName) {
+        return getRandomLockName(owner, lockedObjectName, Collections.emptySet());
+    }
+
+    /**
+     * Get a name for a lock which isn't stored yet nor one of the given names.
+     *
+     * @param owner The owner of the lock
+     * @param lockedObjectName The name of the locked object, which the name starts with
+     * @param takenNames Names which aren't stored yet but are taken nonetheless
+     * @return The name
+     */
+    String getRandomLockName(UUID owner, String lockedObjectName, Set<String> takenNames) {
         try (
             Connection connection = getConnection();
-            PreparedStatement ps = connection.prepareStatement("SELECT LOCK_NAME FROM LOCK WHERE LOCK_NAME LIKE ?")
+            PreparedStatement ps = prepare(connection, "SELECT LOCK_NAME FROM LOCK WHERE LOCK_NAME LIKE ?")
         ) {
             ps.setString(1, lockedObjectName + "%");
 
             try (ResultSet rs = ps.executeQuery()) {
-                final Set<String> usedNames = new HashSet<>();
+                final Set<String> usedNames = new HashSet<>(takenNames);
 
                 while (rs.next()) {
                     usedNames.add(rs.getString("LOCK_NAME"));
@@ -472,138 +1422,209 @@ public class SqlHandler {
         return lockedObjectName.substring(0, Math.min(25 - String.valueOf(randomInt).length(), lockedObjectName.length())) + randomInt;
     }
 
+    @Override
     public void addLockLocation(Lock lock, Location<World> location) {
-        final Optional<Integer> id = getLockID(lock);
+        applyMutation("addLockLocation for " + lock.getName() + ", owner: " + lock.getOwner() + ", location: " + location.toString(),
+            connection -> addLockLocation(connection, lock, location));
+    }
 
-        if (id.isPresent()) {
-            try (
-                Connection connection = getConnection();
-                PreparedStatement ps = connection.prepareStatement("INSERT INTO LOCK_LOCATIONS(LOCK_ID, WORLD_UUID, X, Y, Z) VALUES (?, ?, ?, ?, ?)")
-            ) {
-                ps.setInt(1, id.get());
-                ps.setObject(2, location.getExtent().getUniqueId());
-                ps.setInt(3, location.getBlockX());
-                ps.setInt(4, location.getBlockY());
-                ps.setInt(5, location.getBlockZ());
+    void addLockLocation(Connection connection, Lock lock, Location<World> location) throws SQLException {
+        final long id = getLockID(connection, lock);
+
+        if (id != 0) {
+            final int worldId = getWorldId(connection, location.getExtent().getUniqueId(), true);
+            final long position = LatchUtils.packPosition(location);
+
+            //The location may be taken over from another lock, which changes as well
+            markChanged(connection, "ID = ? OR ID IN (SELECT LOCK_ID FROM LOCK_LOCATIONS WHERE WORLD_ID = ? AND PACKED_POSITION = ?)", id, worldId, position);
+
+            try (PreparedStatement ps = prepare(connection, getUpsertLocationStatement())) {
+                ps.setLong(1, id);
+                ps.setInt(2, worldId);
+                ps.setLong(3, position);
                 ps.executeUpdate();
-            } catch (SQLException e) {
-                getLogger().error("Error addLockLocation for " + lock.getName() + ", owner: " + lock.getOwner() + ", location: " + location.toString());
-                e.printStackTrace();
             }
         }
     }
 
-    public void removeLockAccess(Lock thisLock, UUID uniqueId) {
-        final Optional<Integer> id = getLockID(thisLock);
+    @Override
+    public void removeLockAccess(Lock lock, UUID player) {
+        applyMutation("removeLockAccess for " + lock.getName() + ", owner: " + lock.getOwner() + ", player: " + player,
+            connection -> removeLockAccess(connection, lock, player));
+    }
 
-        if (id.isPresent()) {
-            try (
-                Connection connection = getConnection();
-                PreparedStatement ps = connection.prepareStatement("DELETE FROM LOCK_PLAYERS WHERE LOCK_ID = ? AND PLAYER_UUID = ?")
-            ) {
-                ps.setInt(1, id.get());
-                ps.setObject(2, uniqueId);
+    void removeLockAccess(Connection connection, Lock lock, UUID player) throws SQLException {
+        final long id = getLockID(connection, lock);
+
+        if (id != 0) {
+            markChanged(connection, "ID = ?", id);
+
+            try (PreparedStatement ps = prepare(connection, "DELETE FROM LOCK_PLAYERS WHERE LOCK_ID = ? AND PLAYER_UUID = ?")) {
+                ps.setLong(1, id);
+                ps.setBytes(2, toBytes(player));
                 ps.executeUpdate();
-            } catch (SQLException e) {
-                getLogger().error("Error removeLockAccess for " + thisLock.getName() + ", owner: " + thisLock.getOwner() + ", player: " + uniqueId);
-                e.printStackTrace();
             }
         }
     }
 
-    public void updateLockAttributes(UUID originalOwner, String originalName, Lock thisLock) {
-        try (
-            Connection connection = getConnection();
-            PreparedStatement ps = connection.prepareStatement(
-            "UPDATE LOCK SET OWNER_UUID = ?, LOCK_NAME = ?, LOCK_TYPE = ?, PASSWORD = ?, SALT = ?, REDSTONE_PROTECT = ?, ACCESSED = ? WHERE OWNER_UUID = ? AND LOCK_NAME = ?")
-        ) {
-            ps.setString(1, thisLock.getOwner().toString());
-            ps.setString(2, thisLock.getName());
-            ps.setString(3, thisLock.getLockType().toString());
-            ps.setString(4, thisLock.getPassword());
-            ps.setBytes(5, thisLock.getSalt());
-            ps.setBoolean(6, thisLock.getProtectFromRedstone());
-            ps.setTimestamp(7, Timestamp.valueOf(thisLock.getLastAccessed()));
-            ps.setString(8, originalOwner.toString());
-            ps.setString(9, originalName);
+    @Override
+    public void updateLockAttributes(UUID originalOwner, String originalName, Lock lock) {
+        applyMutation("updateLockAttributes for future lock " + lock.getName() + ", owner: " + lock.getOwner(),
+            connection -> updateLockAttributes(connection, originalOwner, originalName, lock));
+    }
 
-            ps.executeUpdate();
+    void updateLockAttributes(Connection connection, UUID originalOwner, String originalName, Lock lock) throws SQLException {
+        final long id = getLockID(connection, lock, originalOwner, originalName);
+
+        if (id != 0) {
+            try (PreparedStatement ps = prepare(connection,
+                "UPDATE LOCK SET OWNER_UUID = ?, LOCK_NAME = ?, LOCK_TYPE = ?, PASSWORD = ?, SALT = ?, REDSTONE_PROTECT = ?, ACCESSED = ?, CHANGE_ID = "
+                    + CURRENT_CHANGE + " WHERE ID = ?")) {
+                ps.setBytes(1, toBytes(lock.getOwner()));
+                ps.setString(2, lock.getName());
+                ps.setByte(3, lock.getLockType().getId());
+                ps.setString(4, lock.getPassword());
+                ps.setBytes(5, lock.getSalt());
+                ps.setBoolean(6, lock.getProtectFromRedstone());
+                ps.setTimestamp(7, Timestamp.valueOf(lock.getLastAccessed()));
+                ps.setLong(8, id);
+
+                ps.executeUpdate();
+            }
+        }
+    }
+
+    @Override
+    public void updateAccessTimes(Map<Long, Long> accessTimes) {
+        //Locks in memory keep their own access time and snapshots don't hold it, so this isn't a change anything has to catch up on
+        try (Connection connection = getConnection()) {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement ps = prepare(connection, "UPDATE LOCK SET ACCESSED = ? WHERE ID = ?")) {
+                for (Map.Entry<Long, Long> accessTime : accessTimes.entrySet()) {
+                    ps.setTimestamp(1, new Timestamp(TimeUnit.SECONDS.toMillis(accessTime.getValue())));
+                    ps.setLong(2, accessTime.getKey());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
         } catch (SQLException e) {
-            getLogger().error("Error updateLockAttributes for future lock " + thisLock.getName() + ", owner: " + thisLock.getOwner());
+            getLogger().error("Error updating access times of " + accessTimes.size() + " locks");
             e.printStackTrace();
         }
     }
 
-    public void removeAllLockAccess(Lock thisLock) {
-        final Optional<Integer> id = getLockID(thisLock);
+    @Override
+    public void removeAllLockAccess(Lock lock) {
+        applyMutation("removeAllLockAccess for " + lock.getName() + ", owner: " + lock.getOwner(), connection -> removeAllLockAccess(connection, lock));
+    }
 
-        if (id.isPresent()) {
-            try (
-                Connection connection = getConnection();
-                PreparedStatement ps = connection.prepareStatement("DELETE FROM LOCK_PLAYERS WHERE LOCK_ID = ?")
-            ) {
-                ps.setInt(1, id.get());
+    void removeAllLockAccess(Connection connection, Lock lock) throws SQLException {
+        final long id = getLockID(connection, lock);
+
+        if (id != 0) {
+            markChanged(connection, "ID = ?", id);
+
+            try (PreparedStatement ps = prepare(connection, "DELETE FROM LOCK_PLAYERS WHERE LOCK_ID = ?")) {
+                ps.setLong(1, id);
                 ps.executeUpdate();
-            } catch (SQLException e) {
-                getLogger().error("Error removeAllLockAccess for " + thisLock.getName() + ", owner: " + thisLock.getOwner());
-                e.printStackTrace();
             }
         }
     }
 
+    @Override
     public List<Lock> getLocksByOwner(UUID uniqueId) {
-        final List<Lock> locks = new ArrayList<>();
+        try (
+            Connection connection = getConnection();
+            PreparedStatement ps = prepare(connection, "SELECT ID FROM LOCK WHERE OWNER_UUID = ?")
+        ) {
+            ps.setBytes(1, toBytes(uniqueId));
+
+            return loadLocks(connection, ps);
+        } catch (SQLException e) {
+            getLogger().error("Error getLocksByOwner for owner: " + uniqueId);
+            e.printStackTrace();
+        }
+
+        return new ArrayList<>();
+    }
 
+    @Override
+    public List<Lock> getLocksInWorld(UUID world) {
         try (
             Connection connection = getConnection();
-            PreparedStatement ps = connection.prepareStatement(
-            "SELECT ID, OWNER_UUID, LOCK_NAME, LOCK_TYPE, LOCKED_OBJECT, SALT, PASSWORD, REDSTONE_PROTECT, ACCESSED FROM LOCK WHERE OWNER_UUID = ?")
+            PreparedStatement ps = prepare(connection, "SELECT DISTINCT LOCK_ID FROM LOCK_LOCATIONS WHERE WORLD_ID = ?")
         ) {
-            ps.setString(1, uniqueId.toString());
+            final int worldId = getWorldId(connection, world, false);
+            if (worldId == 0) {
+                return new ArrayList<>();
+            }
 
-            try (ResultSet rs = ps.executeQuery();) {
-                while (rs.next()) {
-                    locks.add(Lock.builder()
-                        .owner(UUID.fromString(rs.getString("OWNER_UUID")))
-                        .name(rs.getString("LOCK_NAME"))
-                        .type(LockType.valueOf(rs.getString("LOCK_TYPE")))
-                        .locations(getLockLocationsByID(rs.getInt("ID")))
-                        .objectName(rs.getString("LOCKED_OBJECT"))
-                        .salt(rs.getBytes("SALT"))
-                        .password(rs.getString("PASSWORD"))
-                        .accessors(getAbleToAccessByID(rs.getInt("ID")))
-                        .protectFromRedstone(rs.getBoolean("REDSTONE_PROTECT"))
-                        .lastAccessed(rs.getTimestamp("ACCESSED").toLocalDateTime())
-                        .build());
-                }
+            ps.setInt(1, worldId);
+
+            return loadLocks(connection, ps);
+        } catch (SQLException e) {
+            getLogger().error("Error getLocksInWorld for world: " + world);
+            e.printStackTrace();
+        }
+
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<Lock> getLocksInChunk(UUID world, int chunkX, int chunkZ) {
+        try (
+            Connection connection = getConnection();
+            PreparedStatement ps = prepare(connection,
+                "SELECT DISTINCT LOCK_ID FROM LOCK_LOCATIONS WHERE WORLD_ID = ? AND PACKED_POSITION BETWEEN ? AND ?")
+        ) {
+            final int worldId = getWorldId(connection, world, false);
+            if (worldId == 0) {
+                return new ArrayList<>();
             }
+
+            //Positions are packed chunk first, so every block of the chunk is one contiguous range
+            final long chunkStart = LatchUtils.packPosition(chunkX << 4, 0, chunkZ << 4);
+
+            ps.setInt(1, worldId);
+            ps.setLong(2, chunkStart);
+            ps.setLong(3, chunkStart | 0xFFFFF);
+
+            return loadLocks(connection, ps);
         } catch (SQLException e) {
-            getLogger().error("Error getLocksByOwner for owner: " + uniqueId);
+            getLogger().error("Error getLocksInChunk for world: " + world + ", chunk: " + chunkX + ", " + chunkZ);
             e.printStackTrace();
         }
 
-        return locks;
+        return new ArrayList<>();
     }
 
-    public boolean isPlayerAtLockLimit(UUID player, LockType type, HashMap<String, Integer> limits) {
+    @Override
+    public boolean isPlayerAtLockLimit(UUID player, LockType type, int typeLimit, int totalLimit) {
         //If a maximum isn't defined, no limit
-        if (!limits.containsKey("total") && !limits.containsKey(type.toString().toLowerCase())) {
+        if (totalLimit < 0 && typeLimit < 0) {
             return false;
         }
 
         try (
             Connection connection = getConnection();
-            PreparedStatement ps = connection.prepareStatement(
+            PreparedStatement ps = prepare(connection,
             "SELECT COUNT(ID) as TOTAL, SUM(CASE WHEN LOCK.LOCK_TYPE = ? THEN 1 ELSE 0 END) AS TYPE_TOTAL FROM LOCK WHERE LOCK.OWNER_UUID = ?")
         ) {
-            ps.setString(1, type.toString());
-            ps.setString(2, player.toString());
+            ps.setByte(1, type.getId());
+            ps.setBytes(2, toBytes(player));
 
             try (ResultSet rs = ps.executeQuery()) {
                 //If total limit set and query says we're above that.. or if type limit is set and query says we're above that
                 return rs.next() && ( //if !rs.next(), no locks detected
-                    (limits.containsKey("total") && rs.getInt("TOTAL") >= limits.get("total")) || (limits.containsKey(type.toString().toLowerCase())
-                        && rs.getInt("TYPE_TOTAL") >= limits.get(type.toString().toLowerCase())));
+                    (totalLimit >= 0 && rs.getInt("TOTAL") >= totalLimit) || (typeLimit >= 0 && rs.getInt("TYPE_TOTAL") >= typeLimit));
             }
         } catch (SQLException e) {
             getLogger().error("Error isPlayerAtLockLimit: " + player + ", " + type);
@@ -614,56 +1635,58 @@ public class SqlHandler {
         return true;
     }
 
-    public int clearLocksOlderThan(int days) {
-        int amountDeleted = 0;
-
+    /**
+     * Get the type of every lock of a player, so they can be counted against the limits together with changes which aren't stored yet.
+     *
+     * @param owner The unique id of the player
+     * @return The type of each lock by ID, or nothing if storage couldn't be read
+     */
+    Optional<Map<Long, LockType>> getLockTypesByOwner(UUID owner) {
         try (
             Connection connection = getConnection();
-            PreparedStatement ps = connection.prepareStatement("SELECT ID FROM LOCK WHERE ACCESSED < ?")
+            PreparedStatement ps = prepare(connection, "SELECT ID, LOCK_TYPE FROM LOCK WHERE OWNER_UUID = ?")
         ) {
-            ps.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now().minusDays(days)));
+            ps.setBytes(1, toBytes(owner));
 
             try (ResultSet rs = ps.executeQuery()) {
+                final Map<Long, LockType> types = new HashMap<>();
                 while (rs.next()) {
-                    amountDeleted++;
-                    try (
-                        PreparedStatement psLocations = connection.prepareStatement("DELETE FROM LOCK_LOCATIONS WHERE LOCK_ID = ?");
-                        PreparedStatement psAccessors = connection.prepareStatement("DELETE FROM LOCK_PLAYERS WHERE LOCK_ID = ?");
-                        PreparedStatement psLocks = connection.prepareStatement("DELETE FROM LOCK WHERE ID = ?")
-                    ) {
-                        String lockId = rs.getString(1);
-
-                        psLocations.setString(1, lockId);
-                        psAccessors.setString(1, lockId);
-                        psLocks.setString(1, lockId);
-
-                        psLocations.execute();
-                        psAccessors.execute();
-                        psLocks.execute();
-                    }
+                    types.put(rs.getLong("ID"), LockType.fromId(rs.getByte("LOCK_TYPE")));
                 }
+                return Optional.of(types);
             }
         } catch (SQLException e) {
-            getLogger().error("Error clearLocksOlderThan: " + days);
+            getLogger().error("Error getLockTypesByOwner: " + owner);
             e.printStackTrace();
         }
+        return Optional.empty();
+    }
 
-        return amountDeleted;
+    @Override
+    public Set<Long> clearLocksOlderThan(int days) {
+        try {
+            return deleteLocksInBatches("ACCESSED < ?", Timestamp.valueOf(LocalDateTime.now().minusDays(days)));
+        } catch (SQLException e) {
+            getLogger().error("Error clearLocksOlderThan: " + days);
+            e.printStackTrace();
+        }
+        return Collections.emptySet();
     }
 
+    @Override
     public Map<String, Integer> getLimits(UUID uuid) {
         final Map<String, Integer> limits = new HashMap<>();
 
         try (
             Connection connection = getConnection();
-            PreparedStatement ps = connection.prepareStatement(
+            PreparedStatement ps = prepare(connection,
             "SELECT COUNT(*) as TOTAL, LOCK.LOCK_TYPE as LOCKTYPE FROM LOCK WHERE LOCK.OWNER_UUID = ? GROUP BY LOCK.LOCK_TYPE")
         ) {
-            ps.setString(1, uuid.toString());
+            ps.setBytes(1, toBytes(uuid));
 
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
-                    limits.put(rs.getString("LOCKTYPE").toLowerCase(), rs.getInt("TOTAL"));
+                    limits.put(LockType.fromId(rs.getByte("LOCKTYPE")).toString().toLowerCase(), rs.getInt("TOTAL"));
                 }
             }
         } catch (SQLException e) {
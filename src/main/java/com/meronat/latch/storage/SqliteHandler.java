@@ -0,0 +1,126 @@
+/*
+ * This file is part of Latch, licensed under the MIT License.
+ *
+ * Copyright (c) 2016-2018 IchorPowered <https://github.com/IchorPowered>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.meronat.latch.storage;
+
+import com.google.common.collect.ImmutableList;
+import com.meronat.latch.Latch;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.List;
+
+/**
+ * Storage in a single SQLite file in the configuration directory.
+ */
+public class SqliteHandler extends SqlHandler {
+
+    @Override
+    protected String getDefaultConnectionUrl() {
+        return "jdbc:sqlite:" + Latch.getConfigPatch().getParent().toAbsolutePath().toString() + File.separator + "latch.db";
+    }
+
+    @Override
+    protected List<String> getCreateTableStatements() {
+        return ImmutableList.of(
+            "CREATE TABLE IF NOT EXISTS LOCK (" +
+                "ID INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "OWNER_UUID char(36) NOT NULL, " +
+                "LOCK_NAME varchar(25) NOT NULL, " +
+                "LOCK_TYPE varchar(15) NOT NULL, " +
+                "LOCKED_OBJECT varchar(50) NOT NULL, " +
+                "PASSWORD varchar(256) NOT NULL, " +
+                "SALT BLOB NOT NULL, " +
+                "REDSTONE_PROTECT BOOLEAN NOT NULL, " +
+                "ACCESSED DATETIME NOT NULL, " +
+                "CONSTRAINT UQ_OWNER_NAME UNIQUE (OWNER_UUID, LOCK_NAME) )",
+
+            "CREATE TABLE IF NOT EXISTS LOCK_LOCATIONS (" +
+                "LOCK_ID INTEGER NOT NULL, " +
+                "WORLD_UUID char(36) NOT NULL, " +
+                "X int NOT NULL, " +
+                "Y int NOT NULL, " +
+                "Z int NOT NULL, " +
+                "FOREIGN KEY (LOCK_ID) REFERENCES LOCK(ID), " +
+                "PRIMARY KEY (WORLD_UUID, X, Y, Z) )",
+
+            "CREATE TABLE IF NOT EXISTS LOCK_PLAYERS (" +
+                "LOCK_ID INTEGER NOT NULL, " +
+                "PLAYER_UUID char(36) NOT NULL, " +
+                "FOREIGN KEY (LOCK_ID) REFERENCES LOCK(ID), " +
+                "PRIMARY KEY (LOCK_ID, PLAYER_UUID) )");
+    }
+
+    @Override
+    protected List<String> getCreateCompactTableStatements() {
+        return ImmutableList.of(
+            "CREATE TABLE IF NOT EXISTS WORLDS (" +
+                "ID INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "WORLD_UUID BLOB NOT NULL UNIQUE )",
+
+            "CREATE TABLE LOCK_NEW (" +
+                "ID INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "OWNER_UUID BLOB NOT NULL, " +
+                "LOCK_NAME varchar(25) NOT NULL, " +
+                "LOCK_TYPE tinyint NOT NULL, " +
+                "LOCKED_OBJECT varchar(50) NOT NULL, " +
+                "PASSWORD varchar(256) NOT NULL, " +
+                "SALT BLOB NOT NULL, " +
+                "REDSTONE_PROTECT BOOLEAN NOT NULL, " +
+                "ACCESSED DATETIME NOT NULL, " +
+                "UNIQUE (OWNER_UUID, LOCK_NAME) )",
+
+            "CREATE TABLE LOCK_LOCATIONS_NEW (" +
+                "LOCK_ID INTEGER NOT NULL, " +
+                "WORLD_ID INTEGER NOT NULL, " +
+                "PACKED_POSITION INTEGER NOT NULL, " +
+                "FOREIGN KEY (LOCK_ID) REFERENCES LOCK_NEW(ID), " +
+                "FOREIGN KEY (WORLD_ID) REFERENCES WORLDS(ID), " +
+                "PRIMARY KEY (WORLD_ID, PACKED_POSITION) )",
+
+            "CREATE TABLE LOCK_PLAYERS_NEW (" +
+                "LOCK_ID INTEGER NOT NULL, " +
+                "PLAYER_UUID BLOB NOT NULL, " +
+                "FOREIGN KEY (LOCK_ID) REFERENCES LOCK_NEW(ID), " +
+                "PRIMARY KEY (LOCK_ID, PLAYER_UUID) )");
+    }
+
+    @Override
+    protected String getUpsertLocationStatement() {
+        return "INSERT OR REPLACE INTO LOCK_LOCATIONS(LOCK_ID, WORLD_ID, PACKED_POSITION) VALUES (?, ?, ?)";
+    }
+
+    @Override
+    protected String getUpsertAccessorStatement() {
+        return "INSERT OR IGNORE INTO LOCK_PLAYERS(LOCK_ID, PLAYER_UUID) VALUES (?, ?)";
+    }
+
+    @Override
+    protected int getSnapshotIsolation() {
+        //The driver only knows serializable and read uncommitted, a serializable read transaction reads one state of the file
+        return Connection.TRANSACTION_SERIALIZABLE;
+    }
+
+}
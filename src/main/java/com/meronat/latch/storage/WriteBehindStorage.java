@@ -0,0 +1,519 @@
+/*
+ * This file is part of Latch, licensed under the MIT License.
+ *
+ * Copyright (c) 2016-2018 IchorPowered <https://github.com/IchorPowered>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.meronat.latch.storage;
+
+import com.google.common.collect.Iterables;
+import com.meronat.latch.Latch;
+import com.meronat.latch.entities.Lock;
+import com.meronat.latch.enums.LockType;
+import com.meronat.latch.utils.LatchUtils;
+import com.meronat.latch.utils.SectionBitmap;
+import org.spongepowered.api.scheduler.Task;
+import org.spongepowered.api.world.Location;
+import org.spongepowered.api.world.World;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * Queues lock changes and writes them to the underlying storage in one transaction per flush. Changes to the same thing are
+ * coalesced so only the latest survives. Lookups see the queued changes by laying the changed locks over what storage returns, so they
+ * never wait on a flush. Bulk reads and writes, which only run in the background, flush first instead.
+ *
+ * <p>A change which fails to write is tried again on the next flushes. A lock whose create fails is taken back out of the lock manager,
+ * so it doesn't stay locked in memory only.</p>
+ */
+public class WriteBehindStorage implements LockStorage {
+
+    private static final String CREATE = "create";
+    private static final String DELETE = "delete";
+    private static final String UPDATE = "update";
+    private static final String ADD_LOCATION = "add_location";
+    private static final String REMOVE_LOCATION = "remove_location";
+    private static final String ADD_ACCESS = "add_access";
+    private static final String REMOVE_ACCESS = "remove_access";
+    private static final String REMOVE_ALL_ACCESS = "remove_all_access";
+
+    //How many flushes a failing change is tried in before it is given up on
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final SqlHandler storage;
+
+    //Queued changes in the order they were made, keyed by [kind, lock, target]
+    private final Map<List<Object>, SqlHandler.Mutation> pending = new LinkedHashMap<>();
+
+    //The keys of the changes being written by a flush, which lookups still have to lay over storage until they are committed
+    private List<List<Object>> inFlight = Collections.emptyList();
+
+    //How many flushes the changes put back after failing have been tried in
+    private final Map<List<Object>, Integer> attempts = new HashMap<>();
+
+    private final Object flushLock = new Object();
+
+    public WriteBehindStorage(SqlHandler storage) {
+        this.storage = storage;
+    }
+
+    private void enqueue(SqlHandler.Mutation mutation, String kind, Lock lock, Object target) {
+        final List<Object> key = Arrays.asList(kind, lock, target);
+
+        synchronized (this.pending) {
+            //Move the change to the back of the queue so it lands after anything it depends on
+            this.pending.remove(key);
+            this.pending.put(key, mutation);
+            this.attempts.remove(key);
+        }
+    }
+
+    private void dequeue(String kind, Lock lock, Object target) {
+        synchronized (this.pending) {
+            this.pending.remove(Arrays.asList(kind, lock, target));
+        }
+    }
+
+    @Override
+    public void flush() {
+        synchronized (this.flushLock) {
+            final List<SqlHandler.Mutation> mutations;
+            final List<List<Object>> keys;
+
+            synchronized (this.pending) {
+                if (this.pending.isEmpty()) {
+                    return;
+                }
+                mutations = new ArrayList<>(this.pending.values());
+                keys = new ArrayList<>(this.pending.keySet());
+                this.inFlight = keys;
+                this.pending.clear();
+            }
+
+            List<SqlHandler.Mutation> failed = mutations;
+            try {
+                failed = this.storage.applyMutations(mutations);
+            } finally {
+                synchronized (this.pending) {
+                    this.inFlight = Collections.emptyList();
+                    requeueFailed(keys, mutations, failed);
+                }
+            }
+        }
+    }
+
+    //Puts failed changes back in front of the ones queued since, unless a newer change replaced them. A lock which failed to be created
+    //takes every change to it along, and is taken out of the lock manager on the main thread
+    private void requeueFailed(List<List<Object>> keys, List<SqlHandler.Mutation> mutations, List<SqlHandler.Mutation> failed) {
+        final Map<List<Object>, Integer> attempts = new HashMap<>();
+
+        if (!failed.isEmpty()) {
+            final Set<SqlHandler.Mutation> failedMutations = Collections.newSetFromMap(new IdentityHashMap<>());
+            failedMutations.addAll(failed);
+
+            final Set<Lock> notCreated = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (int i = 0; i < keys.size(); i++) {
+                if (keys.get(i).get(0) == CREATE && failedMutations.contains(mutations.get(i))) {
+                    notCreated.add((Lock) keys.get(i).get(1));
+                }
+            }
+
+            final Map<List<Object>, SqlHandler.Mutation> requeued = new LinkedHashMap<>();
+            for (int i = 0; i < keys.size(); i++) {
+                final List<Object> key = keys.get(i);
+
+                if (!failedMutations.contains(mutations.get(i)) || notCreated.contains(key.get(1)) || this.pending.containsKey(key)) {
+                    continue;
+                }
+
+                final int attempt = this.attempts.getOrDefault(key, 0) + 1;
+                if (attempt < MAX_ATTEMPTS) {
+                    requeued.put(key, mutations.get(i));
+                    attempts.put(key, attempt);
+                } else {
+                    Latch.getLogger().error("Giving up on writing the " + key.get(0) + " change of lock " + ((Lock) key.get(1)).getName()
+                        + " after " + attempt + " attempts, it will be missing from storage.");
+                }
+            }
+
+            for (Lock lock : notCreated) {
+                //A lock deleted while its create was in flight is already gone from the lock manager
+                final boolean deleted = this.pending.containsKey(Arrays.asList(DELETE, lock, null));
+                this.pending.keySet().removeIf(key -> key.get(1) == lock);
+
+                if (!deleted) {
+                    Latch.getLogger().error("Lock " + lock.getName() + " of " + lock.getOwner() + " could not be stored, removing it.");
+                    Task.builder()
+                        .name("forget-unstored-lock")
+                        .execute(() -> Latch.getLockManager().forgetUnstoredLock(lock))
+                        .submit(Latch.getPluginContainer());
+                }
+            }
+
+            if (!requeued.isEmpty()) {
+                final Map<List<Object>, SqlHandler.Mutation> queued = new LinkedHashMap<>(this.pending);
+                this.pending.clear();
+                this.pending.putAll(requeued);
+                this.pending.putAll(queued);
+            }
+        }
+
+        //Changes which were written, or queued again since, start counting over
+        final Set<List<Object>> flushed = new HashSet<>(keys);
+        this.attempts.keySet().removeIf(key -> flushed.contains(key) || !this.pending.containsKey(key));
+        this.attempts.putAll(attempts);
+    }
+
+    /**
+     * Get the locks with queued or in flight changes. Taken before reading storage, so a change written in between is either in storage
+     * or in here.
+     *
+     * @return Whether each lock is being deleted
+     */
+    private Map<Lock, Boolean> getChangedLocks() {
+        final Map<Lock, Boolean> locks = new HashMap<>();
+
+        synchronized (this.pending) {
+            for (List<Object> key : Iterables.concat(this.inFlight, this.pending.keySet())) {
+                locks.merge((Lock) key.get(1), key.get(0) == DELETE, Boolean::logicalOr);
+            }
+        }
+        return locks;
+    }
+
+    /**
+     * Lay the changed locks over locks read from storage. Stored locks are swapped for their changed instance, deleted locks are taken
+     * out and changed locks which now match the lookup are added.
+     *
+     * @param changed The changed locks from {@link #getChangedLocks()}, taken before reading storage
+     * @param stored The locks read from storage
+     * @param matches Whether a lock belongs in the result of the lookup
+     * @return The locks as they will be once the changes are written
+     */
+    private static List<Lock> overlay(Map<Lock, Boolean> changed, List<Lock> stored, Predicate<Lock> matches) {
+        if (changed.isEmpty()) {
+            return stored;
+        }
+
+        final Map<Long, Lock> changedById = new HashMap<>();
+        for (Lock lock : changed.keySet()) {
+            if (lock.getId() != 0) {
+                changedById.put(lock.getId(), lock);
+            }
+        }
+
+        //Locks don't override equals, so the set tells instances apart
+        final Set<Lock> locks = new LinkedHashSet<>();
+        for (Lock lock : stored) {
+            locks.add(changedById.getOrDefault(lock.getId(), lock));
+        }
+        locks.addAll(changed.keySet());
+
+        locks.removeIf(lock -> changed.getOrDefault(lock, false) || (changed.containsKey(lock) && !matches.test(lock)));
+        return new ArrayList<>(locks);
+    }
+
+    @Override
+    public void createTables() {
+        this.storage.createTables();
+    }
+
+    @Override
+    public void createLock(Lock lock, Set<Location<World>> locations, Set<UUID> ableToAccess) {
+        final Set<Location<World>> locationsCopy = new HashSet<>(locations);
+        final Set<UUID> accessorsCopy = new HashSet<>(ableToAccess);
+
+        enqueue(connection -> this.storage.createLock(connection, lock, locationsCopy, accessorsCopy), CREATE, lock, null);
+    }
+
+    @Override
+    public void createLocks(Collection<Lock> locks) {
+        //Bulk creates are already a single transaction, so they skip the queue
+        flush();
+        this.storage.createLocks(locks);
+    }
+
+    @Override
+    public void deleteLock(Lock lock) {
+        final boolean neverStored;
+
+        synchronized (this.pending) {
+            neverStored = this.pending.containsKey(Arrays.asList(CREATE, lock, null));
+            this.pending.keySet().removeIf(key -> key.get(1) == lock);
+        }
+
+        //If the lock hasn't been written yet dropping its queued changes is all it takes
+        if (!neverStored) {
+            enqueue(connection -> this.storage.deleteLock(connection, lock), DELETE, lock, null);
+        }
+    }
+
+    @Override
+    public void removeLockLocation(Lock lock, Location<World> location) {
+        dequeue(ADD_LOCATION, lock, location);
+        enqueue(connection -> this.storage.removeLockLocation(connection, location), REMOVE_LOCATION, lock, location);
+    }
+
+    @Override
+    public void addLockLocation(Lock lock, Location<World> location) {
+        dequeue(REMOVE_LOCATION, lock, location);
+        enqueue(connection -> this.storage.addLockLocation(connection, lock, location), ADD_LOCATION, lock, location);
+    }
+
+    @Override
+    public void addLockAccess(Lock lock, UUID player) {
+        dequeue(REMOVE_ACCESS, lock, player);
+        enqueue(connection -> this.storage.addLockAccess(connection, lock, player), ADD_ACCESS, lock, player);
+    }
+
+    @Override
+    public void removeLockAccess(Lock lock, UUID player) {
+        dequeue(ADD_ACCESS, lock, player);
+        enqueue(connection -> this.storage.removeLockAccess(connection, lock, player), REMOVE_ACCESS, lock, player);
+    }
+
+    @Override
+    public void removeAllLockAccess(Lock lock) {
+        synchronized (this.pending) {
+            this.pending.keySet().removeIf(key -> key.get(1) == lock && (key.get(0) == ADD_ACCESS || key.get(0) == REMOVE_ACCESS));
+        }
+
+        enqueue(connection -> this.storage.removeAllLockAccess(connection, lock), REMOVE_ALL_ACCESS, lock, null);
+    }
+
+    @Override
+    public void updateLockAttributes(UUID originalOwner, String originalName, Lock lock) {
+        final List<Object> key = Arrays.asList(UPDATE, lock, null);
+
+        synchronized (this.pending) {
+            //The update writes whatever the lock holds when it is flushed, so an earlier queued update already covers this one and
+            //knows the owner and name the lock is actually stored under
+            final SqlHandler.Mutation queued = this.pending.remove(key);
+
+            this.pending.put(key, queued != null ? queued
+                : connection -> this.storage.updateLockAttributes(connection, originalOwner, originalName, lock));
+        }
+    }
+
+    @Override
+    public void updateAccessTimes(Map<Long, Long> accessTimes) {
+        flush();
+        this.storage.updateAccessTimes(accessTimes);
+    }
+
+    @Override
+    public Optional<LockOccupancy> getOccupancy() {
+        final Map<Lock, Boolean> changed = getChangedLocks();
+
+        //Locations which are already stored are counted twice, which only costs a lookup once their lock is gone
+        return this.storage.getOccupancy().map(occupancy -> {
+            changed.forEach((lock, deleted) -> {
+                if (!deleted && lock.getWorldUniqueId().isPresent()) {
+                    for (long position : lock.getPositions()) {
+                        occupancy.add(lock.getWorldUniqueId().get(), position);
+                    }
+                }
+            });
+            return occupancy;
+        });
+    }
+
+    @Override
+    public Optional<SectionBitmap> getRedstoneProtectedLocations() {
+        flush();
+        return this.storage.getRedstoneProtectedLocations();
+    }
+
+    @Override
+    public Optional<SectionBitmap> getSupportBlocks(Collection<String> lockedObjects) {
+        flush();
+        return this.storage.getSupportBlocks(lockedObjects);
+    }
+
+    @Override
+    public long getChangeCounter() {
+        //Queued changes move the counter on when they are written
+        return this.storage.getChangeCounter();
+    }
+
+    @Override
+    public List<Lock> getLocksChangedSince(long changeCounter) {
+        flush();
+        return this.storage.getLocksChangedSince(changeCounter);
+    }
+
+    @Override
+    public Set<Long> getLocksDeletedSince(long changeCounter) {
+        flush();
+        return this.storage.getLocksDeletedSince(changeCounter);
+    }
+
+    @Override
+    public void writeSnapshot(Path file) {
+        flush();
+        this.storage.writeSnapshot(file);
+    }
+
+    @Override
+    public void pruneDeletedLocks(long changeCounter) {
+        this.storage.pruneDeletedLocks(changeCounter);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Optional<Lock> getLockByLocation(Location location) {
+        final Map<Lock, Boolean> changed = getChangedLocks();
+        final List<Lock> stored = new ArrayList<>();
+        this.storage.getLockByLocation(location).ifPresent(stored::add);
+
+        return overlay(changed, stored, lock -> lock.hasLocation((Location<World>) location)).stream().findFirst();
+    }
+
+    @Override
+    public List<Lock> getLocksByOwner(UUID owner) {
+        final Map<Lock, Boolean> changed = getChangedLocks();
+        return overlay(changed, this.storage.getLocksByOwner(owner), lock -> lock.isOwner(owner));
+    }
+
+    @Override
+    public List<Lock> getLocksInWorld(UUID world) {
+        flush();
+        return this.storage.getLocksInWorld(world);
+    }
+
+    @Override
+    public List<Lock> getLocksByLocations(Collection<Location<World>> locations) {
+        final Map<Lock, Boolean> changed = getChangedLocks();
+        return overlay(changed, this.storage.getLocksByLocations(locations), lock -> locations.stream().anyMatch(lock::hasLocation));
+    }
+
+    @Override
+    public List<Lock> getLocksInChunk(UUID world, int chunkX, int chunkZ) {
+        final Map<Lock, Boolean> changed = getChangedLocks();
+        final long chunkKey = LatchUtils.packPosition(chunkX << 4, 0, chunkZ << 4) >>> 20;
+
+        return overlay(changed, this.storage.getLocksInChunk(world, chunkX, chunkZ), lock -> lock.getWorldUniqueId().filter(world::equals)
+            .isPresent() && Arrays.stream(lock.getPositions()).anyMatch(position -> position >>> 20 == chunkKey));
+    }
+
+    @Override
+    public Set<Long> deleteLocksForPlayer(UUID player) {
+        flush();
+        return this.storage.deleteLocksForPlayer(player);
+    }
+
+    @Override
+    public Set<Long> clearLocksOlderThan(int days) {
+        flush();
+        return this.storage.clearLocksOlderThan(days);
+    }
+
+    @Override
+    public boolean isUniqueName(UUID player, String lockName) {
+        //A name freed by a queued change is still taken until it is written, which only makes a player pick another name
+        for (Map.Entry<Lock, Boolean> lock : getChangedLocks().entrySet()) {
+            if (!lock.getValue() && lock.getKey().isOwner(player) && lock.getKey().getName().equals(lockName)) {
+                return false;
+            }
+        }
+        return this.storage.isUniqueName(player, lockName);
+    }
+
+    @Override
+    public String getRandomLockName(UUID owner, String type) {
+        final Set<String> names = new HashSet<>();
+        getChangedLocks().forEach((lock, deleted) -> names.add(lock.getName()));
+
+        return this.storage.getRandomLockName(owner, type, names);
+    }
+
+    @Override
+    public boolean isPlayerAtLockLimit(UUID player, LockType lockType, int typeLimit, int totalLimit) {
+        if (totalLimit < 0 && typeLimit < 0) {
+            return false;
+        }
+
+        final Optional<List<LockType>> types = getLockTypes(player);
+        if (!types.isPresent()) {
+            //Storage couldn't be read, prevent placement
+            return true;
+        }
+
+        final long ofType = types.get().stream().filter(type -> type == lockType).count();
+        return (totalLimit >= 0 && types.get().size() >= totalLimit) || (typeLimit >= 0 && ofType >= typeLimit);
+    }
+
+    @Override
+    public Map<String, Integer> getLimits(UUID player) {
+        final Map<String, Integer> limits = new HashMap<>();
+
+        getLockTypes(player).ifPresent(types -> {
+            for (LockType type : types) {
+                limits.merge(type.toString().toLowerCase(), 1, Integer::sum);
+            }
+        });
+        return limits;
+    }
+
+    /**
+     * Get the type of every lock of a player as it will be once the queued changes are written. Changed locks take the place of their
+     * stored row by ID, so a create which was written meanwhile is only counted once.
+     *
+     * @param player The unique id of the player
+     * @return The types, or nothing if storage couldn't be read
+     */
+    private Optional<List<LockType>> getLockTypes(UUID player) {
+        final Map<Lock, Boolean> changed = getChangedLocks();
+
+        return this.storage.getLockTypesByOwner(player).map(stored -> {
+            final List<LockType> types = new ArrayList<>();
+
+            for (Lock lock : changed.keySet()) {
+                stored.remove(lock.getId());
+            }
+            types.addAll(stored.values());
+
+            changed.forEach((lock, deleted) -> {
+                if (!deleted && lock.isOwner(player)) {
+                    types.add(lock.getLockType());
+                }
+            });
+            return types;
+        });
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * This file is part of Latch, licensed under the MIT License.
+ *
+ * Copyright (c) 2016-2018 IchorPowered <https://github.com/IchorPowered>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.meronat.latch.utils;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Maps unique ids to small int ids and back. Lookups never block, so they can run on the main thread while loaders and the storage
+ * thread add to the same dictionary. Ids are either handed out here in order from 0, or assigned elsewhere and recorded with
+ * {@link #put(int, UUID)}, but a dictionary should only be filled one of the two ways.
+ */
+public final class IdDictionary {
+
+    public static final int NO_ID = -1;
+
+    private final Map<UUID, Integer> ids = new ConcurrentHashMap<>();
+    private final Map<Integer, UUID> uniqueIds = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    /**
+     * Get the id of a unique id, handing out the next free one if it has none yet.
+     *
+     * @param uniqueId The unique id
+     * @return The id
+     */
+    public int getId(UUID uniqueId) {
+        final Integer id = this.ids.get(uniqueId);
+        if (id != null) {
+            return id;
+        }
+
+        //The reverse entry goes in first, so anyone who sees the id can also look it up
+        return this.ids.computeIfAbsent(uniqueId, key -> {
+            final int newId = this.nextId.getAndIncrement();
+            this.uniqueIds.put(newId, key);
+            return newId;
+        });
+    }
+
+    /**
+     * Get the id of a unique id without handing out a new one.
+     *
+     * @param uniqueId The unique id
+     * @return The id, or {@link #NO_ID} if it has none
+     */
+    public int findId(UUID uniqueId) {
+        final Integer id = this.ids.get(uniqueId);
+
+        return id == null ? NO_ID : id;
+    }
+
+    @Nullable
+    public UUID getUniqueId(int id) {
+        return this.uniqueIds.get(id);
+    }
+
+    /**
+     * Record an id which was assigned elsewhere, such as by a database.
+     *
+     * @param id The id
+     * @param uniqueId The unique id it belongs to
+     */
+    public void put(int id, UUID uniqueId) {
+        this.uniqueIds.put(id, uniqueId);
+        this.ids.put(uniqueId, id);
+    }
+
+    public void clear() {
+        this.ids.clear();
+        this.uniqueIds.clear();
+    }
+
+}
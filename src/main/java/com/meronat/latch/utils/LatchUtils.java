@@ -27,7 +27,6 @@ package com.meronat.latch.utils;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.io.BaseEncoding;
 import com.meronat.latch.Latch;
 import com.meronat.latch.entities.Lock;
 import com.meronat.latch.entities.LockManager;
@@ -42,19 +41,14 @@ import org.spongepowered.api.util.Direction;
 import org.spongepowered.api.world.Location;
 import org.spongepowered.api.world.World;
 
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
-
 public class LatchUtils {
 
     private static final ImmutableList<Direction> adjacentDirections = ImmutableList
@@ -67,14 +61,22 @@ public class LatchUtils {
         return type.getName();
     }
 
-    public static List<Lock> getAdjacentLocks(Location location) {
+    public static List<Lock> getAdjacentLocks(Location<World> location) {
         final List<Lock> lockList = new ArrayList<>();
 
         final LockManager lockManager = Latch.getLockManager();
 
+        final List<Location<World>> neighbors = new ArrayList<>();
         for (Direction d : adjacentDirections) {
-            if (lockManager.isLockableBlock(location.getBlockRelative(d).getBlock().getType())) {
-                lockManager.getLock(location.getBlockRelative(d)).ifPresent(lockList::add);
+            neighbors.add(location.getBlockRelative(d));
+        }
+
+        //Look all of them up at once, and only read the blocks which turned out to be locked
+        final Map<Location<World>, Lock> locks = lockManager.getLocks(neighbors);
+        for (Location<World> neighbor : neighbors) {
+            final Lock lock = locks.get(neighbor);
+            if (lock != null && lockManager.isLockableBlock(neighbor.getBlockType())) {
+                lockList.add(lock);
             }
         }
         return lockList;
@@ -104,32 +106,41 @@ public class LatchUtils {
         return Optional.empty();
     }
 
-    public static byte[] generateSalt() {
-        final byte[] salt = new byte[8];
+    public static String getRandomLockName(UUID owner, String lockedObjectName) {
+        return Latch.getStorageHandler().getRandomLockName(owner, lockedObjectName);
+    }
 
-        new SecureRandom().nextBytes(salt);
+    /**
+     * Pack a block position into a single long. The position is laid out chunk first (chunk x, chunk z, y, then the x/z within the chunk)
+     * so every block of a chunk shares a contiguous range of keys.
+     *
+     * @param x The block x coordinate
+     * @param y The block y coordinate
+     * @param z The block z coordinate
+     * @return The packed position
+     */
+    public static long packPosition(int x, int y, int z) {
+        return ((long) (x >> 4) & 0x3FFFFF) << 42 | ((long) (z >> 4) & 0x3FFFFF) << 20 | ((long) y & 0xFFF) << 8 | (x & 0xF) << 4 | (z & 0xF);
+    }
 
-        return salt;
+    public static long packPosition(Location<?> location) {
+        return packPosition(location.getBlockX(), location.getBlockY(), location.getBlockZ());
     }
 
-    public static String hashPassword(String password, byte[] salt) {
-        final PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, 1000, 256);
-
-        try {
-            final SecretKeyFactory key = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512");
-            return BaseEncoding.base16().encode(key.generateSecret(spec).getEncoded());
-        } catch (NoSuchAlgorithmException e) {
-            Latch.getLogger().error("Password algorithm not detected. Password will be stored as plaintext.");
-            e.printStackTrace();
-        } catch (InvalidKeySpecException e) {
-            Latch.getLogger().error("Password has an invalid key. Password will be stored as plaintext.");
-            e.printStackTrace();
-        }
-        return password;
+    public static long packPositionBelow(long position) {
+        return packPosition(unpackX(position), unpackY(position) - 1, unpackZ(position));
     }
 
-    public static String getRandomLockName(UUID owner, String lockedObjectName) {
-        return Latch.getStorageHandler().getRandomLockName(owner, lockedObjectName);
+    public static int unpackX(long position) {
+        return (int) (position >> 42) << 4 | (int) (position >> 4 & 0xF);
+    }
+
+    public static int unpackY(long position) {
+        return (int) (position << 44 >> 52);
+    }
+
+    public static int unpackZ(long position) {
+        return (int) (position << 22 >> 42) << 4 | (int) (position & 0xF);
     }
 
     public static String getLocationString(Location<World> location) {
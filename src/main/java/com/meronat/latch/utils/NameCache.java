@@ -0,0 +1,153 @@
+/*
+ * This file is part of Latch, licensed under the MIT License.
+ *
+ * Copyright (c) 2016-2018 IchorPowered <https://github.com/IchorPowered>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.meronat.latch.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.meronat.latch.Latch;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.entity.living.player.Player;
+import org.spongepowered.api.entity.living.player.User;
+import org.spongepowered.api.scheduler.Task;
+import org.spongepowered.api.service.user.UserStorageService;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the names of the players locks mention, so showing a lock never waits on the user storage service. Names which are not known
+ * yet are looked up in batches off the main thread.
+ */
+public final class NameCache {
+
+    private static final int MAXIMUM_SIZE = 2000;
+    private static final long EXPIRY_MINUTES = 30;
+
+    //Players whose names could not be found are cached as empty, so they aren't looked up over and over
+    private final Cache<UUID, Optional<String>> names = CacheBuilder.newBuilder()
+        .maximumSize(MAXIMUM_SIZE)
+        .expireAfterWrite(EXPIRY_MINUTES, TimeUnit.MINUTES)
+        .build();
+
+    //Players being looked up right now
+    private final Set<UUID> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Get the name of a player if it is already known. Must be called from the main thread, as online players are checked too.
+     *
+     * @param uniqueId The unique id of the player
+     * @return The name, or empty if it has to be looked up, or the player could not be found
+     */
+    public Optional<String> getCachedName(UUID uniqueId) {
+        final Optional<Player> player = Sponge.getServer().getPlayer(uniqueId);
+
+        if (player.isPresent()) {
+            this.names.put(uniqueId, Optional.of(player.get().getName()));
+            return Optional.of(player.get().getName());
+        }
+
+        final Optional<String> name = this.names.getIfPresent(uniqueId);
+
+        return name == null ? Optional.empty() : name;
+    }
+
+    /**
+     * Whether all of the players have been looked up, whether or not a name was found.
+     *
+     * @param uniqueIds The unique ids of the players
+     * @return Whether none of them would need a lookup
+     */
+    public boolean isCached(Collection<UUID> uniqueIds) {
+        for (UUID uniqueId : uniqueIds) {
+            if (this.names.getIfPresent(uniqueId) == null && !Sponge.getServer().getPlayer(uniqueId).isPresent()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Look up the names of players which are not cached yet off the main thread, all in one task.
+     *
+     * @param uniqueIds The unique ids of the players
+     */
+    public void prefetch(Collection<UUID> uniqueIds) {
+        final List<UUID> missing = new ArrayList<>();
+
+        for (UUID uniqueId : uniqueIds) {
+            if (this.names.getIfPresent(uniqueId) == null && this.pending.add(uniqueId)) {
+                missing.add(uniqueId);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            Task.builder()
+                .name("resolve-player-names")
+                .async()
+                .execute(() -> resolve(missing))
+                .submit(Latch.getPluginContainer());
+        }
+    }
+
+    /**
+     * Look up the names of players in one batch, caching them. This asks the user storage service, so it should not be called from the
+     * main thread.
+     *
+     * @param uniqueIds The unique ids of the players
+     * @return The names found for the players
+     */
+    public Map<UUID, String> resolve(Collection<UUID> uniqueIds) {
+        final Map<UUID, String> resolved = new HashMap<>();
+
+        final Optional<UserStorageService> userStorageService = Sponge.getServiceManager().provide(UserStorageService.class);
+
+        try {
+            for (UUID uniqueId : uniqueIds) {
+                Optional<String> name = this.names.getIfPresent(uniqueId);
+
+                if (name == null) {
+                    name = userStorageService.flatMap(s -> s.get(uniqueId)).map(User::getName);
+                    this.names.put(uniqueId, name);
+                }
+
+                name.ifPresent(n -> resolved.put(uniqueId, n));
+            }
+        } finally {
+            this.pending.removeAll(uniqueIds);
+        }
+
+        return resolved;
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * This file is part of Latch, licensed under the MIT License.
+ *
+ * Copyright (c) 2016-2018 IchorPowered <https://github.com/IchorPowered>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.meronat.latch.utils;
+
+import com.google.common.io.BaseEncoding;
+import com.meronat.latch.Latch;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Hashes and verifies lock passwords on a small pool of its own, so a burst of password attempts can neither stall the server thread nor
+ * crowd out storage work. Each worker keeps its own key factory and random source rather than creating them for every password.
+ */
+public final class PasswordService {
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA512";
+    private static final int ITERATIONS = 1000;
+    private static final int KEY_LENGTH = 256;
+    private static final int SALT_LENGTH = 8;
+
+    private static final int WORKERS = 2;
+    private static final int QUEUE_SIZE = 64;
+
+    private static final ThreadLocal<SecretKeyFactory> keyFactory = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            Latch.getLogger().error("Password algorithm not detected. Passwords will be stored as plaintext.");
+            e.printStackTrace();
+            return null;
+        }
+    });
+
+    private static final ThreadLocal<SecureRandom> random = ThreadLocal.withInitial(SecureRandom::new);
+
+    //When each player last tried a password
+    private final Map<UUID, Long> lastAttempts = new ConcurrentHashMap<>();
+
+    @Nullable private ThreadPoolExecutor workers;
+
+    /**
+     * Generate a new salt with the random source of the calling thread.
+     *
+     * @return The salt
+     */
+    public static byte[] generateSalt() {
+        final byte[] salt = new byte[SALT_LENGTH];
+
+        random.get().nextBytes(salt);
+
+        return salt;
+    }
+
+    /**
+     * Hash a password on the calling thread with its cached key factory.
+     *
+     * @param password The password
+     * @param salt The salt of the lock
+     * @return The hashed password, or the password itself if it could not be hashed
+     */
+    private static String hashNow(String password, byte[] salt) {
+        final SecretKeyFactory factory = keyFactory.get();
+
+        if (factory == null) {
+            return password;
+        }
+
+        final PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, ITERATIONS, KEY_LENGTH);
+
+        try {
+            return BaseEncoding.base16().encode(factory.generateSecret(spec).getEncoded());
+        } catch (InvalidKeySpecException e) {
+            Latch.getLogger().error("Password has an invalid key. Password will be stored as plaintext.");
+            e.printStackTrace();
+        } finally {
+            spec.clearPassword();
+        }
+        return password;
+    }
+
+    /**
+     * Hash a password on the password workers.
+     *
+     * @param password The password
+     * @param salt The salt of the lock
+     * @return The hashed password, failing with a RejectedExecutionException if too many passwords are already waiting
+     */
+    public CompletableFuture<String> hash(String password, byte[] salt) {
+        try {
+            return CompletableFuture.supplyAsync(() -> hashNow(password, salt), getWorkers());
+        } catch (RejectedExecutionException e) {
+            final CompletableFuture<String> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    /**
+     * Check a password against the hash of a lock on the password workers.
+     *
+     * @param password The password given
+     * @param salt The salt of the lock
+     * @param hash The hashed password of the lock
+     * @return Whether the password matched, failing with a RejectedExecutionException if too many passwords are already waiting
+     */
+    public CompletableFuture<Boolean> verify(String password, byte[] salt, String hash) {
+        return hash(password, salt).thenApply(attempt -> MessageDigest.isEqual(attempt.getBytes(), hash.getBytes()));
+    }
+
+    /**
+     * Record a password attempt of a player, unless they tried one too recently.
+     *
+     * @param player The unique id of the player
+     * @return Whether the player may try a password now
+     */
+    public boolean tryAttempt(UUID player) {
+        final long cooldown = Latch.getSettings().getPasswordAttemptCooldown();
+
+        if (cooldown <= 0) {
+            return true;
+        }
+
+        final long now = System.currentTimeMillis();
+
+        final Long last = this.lastAttempts.get(player);
+
+        if (last != null && now - last < cooldown) {
+            return false;
+        }
+
+        this.lastAttempts.put(player, now);
+
+        return true;
+    }
+
+    public void forgetPlayer(UUID player) {
+        this.lastAttempts.remove(player);
+    }
+
+    public void shutdown() {
+        if (this.workers != null) {
+            this.workers.shutdown();
+        }
+    }
+
+    private synchronized ThreadPoolExecutor getWorkers() {
+        if (this.workers == null) {
+            final AtomicInteger count = new AtomicInteger();
+
+            this.workers = new ThreadPoolExecutor(WORKERS, WORKERS, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE), runnable -> {
+                final Thread thread = new Thread(runnable, "Latch Password Worker " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return this.workers;
+    }
+
+}
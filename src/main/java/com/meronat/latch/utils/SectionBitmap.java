@@ -0,0 +1,80 @@
+/*
+ * This file is part of Latch, licensed under the MIT License.
+ *
+ * Copyright (c) 2016-2018 IchorPowered <https://github.com/IchorPowered>
+ * Copyright (c) Contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.meronat.latch.utils;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One bit per block for a set of packed positions, grouped into 16x16x16 sections of 4096 bits so a test is a map lookup and a bit test.
+ */
+public final class SectionBitmap {
+
+    private final Map<UUID, Map<Long, long[]>> sections = new ConcurrentHashMap<>();
+
+    public boolean get(UUID world, long position) {
+        final Map<Long, long[]> worldSections = this.sections.get(world);
+        if (worldSections == null) {
+            return false;
+        }
+
+        final long[] bits = worldSections.get(position >>> 12);
+        final int bit = (int) (position & 0xFFF);
+        return bits != null && (bits[bit >>> 6] & 1L << bit) != 0;
+    }
+
+    public void set(UUID world, long position) {
+        final long[] bits = this.sections.computeIfAbsent(world, w -> new ConcurrentHashMap<>())
+            .computeIfAbsent(position >>> 12, section -> new long[64]);
+        final int bit = (int) (position & 0xFFF);
+
+        synchronized (bits) {
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    public void clear(UUID world, long position) {
+        final Map<Long, long[]> worldSections = this.sections.get(world);
+        if (worldSections == null) {
+            return;
+        }
+
+        final long[] bits = worldSections.get(position >>> 12);
+        final int bit = (int) (position & 0xFFF);
+
+        if (bits != null) {
+            synchronized (bits) {
+                bits[bit >>> 6] &= ~(1L << bit);
+            }
+        }
+    }
+
+    public void clearWorld(UUID world) {
+        this.sections.remove(world);
+    }
+
+}